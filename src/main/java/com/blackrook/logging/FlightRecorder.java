@@ -0,0 +1,350 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.blackrook.logging.LoggingFactory.LogLevel;
+
+/**
+ * A fixed-size history of recent log messages at every level, including ones below the factory's logging level,
+ * that is written to a target driver when a message at or above a trigger level is logged.
+ * <p>This gives the detail leading up to an error without paying for the formatting or output of
+ * every detailed message in the common case: messages are recorded into preallocated slots with their raw
+ * message objects and format arguments, and are only formatted if the history is written.</p>
+ * <p>A recorder is attached to a factory via {@link LoggingFactory#setFlightRecorder(FlightRecorder)}.
+ * The history is written on the factory's logger thread, just before the triggering message, and cleared
+ * so that the same messages are not written twice. It can also be written on demand via {@link #dump()}.
+ * Recorded messages keep the sequence numbers that the factory gave them, so they sort with everything else.
+ * Messages that were already written to the target driver (because it is also one of the factory's drivers)
+ * are not written again.</p>
+ * <p>Since formatting is deferred, message objects and format arguments should not be changed after they are logged.
+ * Thread and caller information is only kept for messages that were also logged, if a driver asked for it.</p>
+ * <p>Recording does not take one shared lock. The history is split into stripes, one per processor (up to 16),
+ * and each logging thread records into the stripe picked by its id, so threads rarely wait on each other.
+ * Each stripe holds up to the full capacity, so that the most recent messages are kept no matter which threads
+ * logged them, and its slots are allocated the first time it is used. Recorded messages are still timestamped
+ * with the factory's clock and numbered, so a cheap clock like {@link LogClock#COARSE} helps when recording
+ * a lot of detail.</p>
+ * @author Matthew Tropiano
+ */
+public class FlightRecorder
+{
+	/** Orders entries by sequence number. */
+	private static final Comparator<Entry> SEQUENCE_ORDER = new Comparator<Entry>()
+	{
+		@Override
+		public int compare(Entry a, Entry b)
+		{
+			return Long.compare(a.sequence, b.sequence);
+		}
+	};
+
+	/** Most stripes to use. */
+	private static final int MAX_STRIPES = 16;
+
+	/** The amount of recent messages to keep. */
+	private int capacity;
+	/** The history stripes. The amount is a power of two. */
+	private Stripe[] stripes;
+
+	/** The least severe level recorded. */
+	private LogLevel recordLevel;
+	/** The least severe level that triggers a dump. */
+	private LogLevel triggerLevel;
+	/** The driver that history is written to. */
+	private LoggingDriver target;
+	/** The factory attached to, if any. */
+	private LoggingFactory factory;
+
+	/**
+	 * Creates a new flight recorder that records every level.
+	 * @param capacity the amount of recent messages to keep.
+	 * @param triggerLevel the least severe level that writes the history (for example, {@link LogLevel#ERROR}).
+	 * @param target the driver to write the history to.
+	 * @throws IllegalArgumentException if capacity is less than 1.
+	 */
+	public FlightRecorder(int capacity, LogLevel triggerLevel, LoggingDriver target)
+	{
+		this(capacity, LogLevel.DEBUG, triggerLevel, target);
+	}
+
+	/**
+	 * Creates a new flight recorder.
+	 * @param capacity the amount of recent messages to keep.
+	 * @param recordLevel the least severe level to record.
+	 * @param triggerLevel the least severe level that writes the history (for example, {@link LogLevel#ERROR}).
+	 * @param target the driver to write the history to.
+	 * @throws IllegalArgumentException if capacity is less than 1.
+	 * @throws NullPointerException if any level or the target is null.
+	 */
+	public FlightRecorder(int capacity, LogLevel recordLevel, LogLevel triggerLevel, LoggingDriver target)
+	{
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be 1 or greater.");
+		if (recordLevel == null || triggerLevel == null || target == null)
+			throw new NullPointerException("Levels and target cannot be null.");
+
+		this.capacity = capacity;
+		this.stripes = new Stripe[Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES))];
+		for (int i = 0; i < stripes.length; i++)
+			stripes[i] = new Stripe();
+		this.recordLevel = recordLevel;
+		this.triggerLevel = triggerLevel;
+		this.target = target;
+		this.factory = null;
+	}
+
+	/**
+	 * @return the amount of recent messages kept.
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * @return the least severe level recorded.
+	 */
+	public LogLevel getRecordLevel()
+	{
+		return recordLevel;
+	}
+
+	/**
+	 * @return the least severe level that writes the history.
+	 */
+	public LogLevel getTriggerLevel()
+	{
+		return triggerLevel;
+	}
+
+	/**
+	 * @return the driver that the history is written to.
+	 */
+	public LoggingDriver getTarget()
+	{
+		return target;
+	}
+
+	/**
+	 * @return the amount of messages currently recorded.
+	 */
+	public int size()
+	{
+		int out = 0;
+		for (Stripe stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				out += stripe.count;
+			}
+		}
+		return Math.min(out, capacity);
+	}
+
+	/**
+	 * Writes the current history to the target driver, and clears it.
+	 * The history is written on the attached factory's logger thread, in order with the messages already queued.
+	 * @throws IllegalStateException if this recorder is not attached to a factory.
+	 */
+	public void dump()
+	{
+		LoggingFactory factory;
+		synchronized (this)
+		{
+			factory = this.factory;
+		}
+		if (factory == null)
+			throw new IllegalStateException("This recorder is not attached to a factory.");
+		factory.addDump(this, drain());
+	}
+
+	/**
+	 * Attaches this recorder to a factory.
+	 * @param factory the factory, or null to detach.
+	 * @throws IllegalStateException if attaching while already attached to a different factory.
+	 */
+	synchronized void attach(LoggingFactory factory)
+	{
+		if (factory != null && this.factory != null && this.factory != factory)
+			throw new IllegalStateException("This recorder is already attached to a factory.");
+		this.factory = factory;
+	}
+
+	/**
+	 * Checks if a level is recorded.
+	 * @param level the level.
+	 * @return true if so, false if not.
+	 */
+	boolean records(LogLevel level)
+	{
+		return level.ordinal() <= recordLevel.ordinal();
+	}
+
+	/**
+	 * Checks if a level triggers a dump.
+	 * @param level the level.
+	 * @return true if so, false if not.
+	 */
+	boolean triggers(LogLevel level)
+	{
+		return level.ordinal() <= triggerLevel.ordinal();
+	}
+
+	/**
+	 * Records a message into the next slot, overwriting the oldest if full.
+	 * Either message or formatString is used.
+	 * The drivers are the ones the message was queued for, or null if it was not logged.
+	 */
+	void record(long time, long sequence, LogLevel level, String source, Object message, String formatString, Object[] args, LogFields fields, LogContext context, LogOrigin origin, LoggingDriver[] drivers, Throwable throwable)
+	{
+		Stripe stripe = stripes[(int)Thread.currentThread().getId() & (stripes.length - 1)];
+		synchronized (stripe)
+		{
+			if (stripe.slots == null)
+			{
+				stripe.slots = new Entry[capacity];
+				for (int i = 0; i < capacity; i++)
+					stripe.slots[i] = new Entry();
+			}
+			stripe.slots[stripe.next].fill(time, sequence, level, source, message, formatString, args, fields, context, origin, drivers, throwable);
+			if (++stripe.next == capacity)
+				stripe.next = 0;
+			if (stripe.count < capacity)
+				stripe.count++;
+		}
+	}
+
+	/**
+	 * Copies out the most recent messages in sequence order, and clears the slots.
+	 * @return the recorded messages.
+	 */
+	synchronized Entry[] drain()
+	{
+		Entry[] out = new Entry[0];
+		int length = 0;
+		for (Stripe stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				if (length + stripe.count > out.length)
+					out = Arrays.copyOf(out, length + stripe.count);
+				int start = stripe.next - stripe.count + (stripe.next < stripe.count ? capacity : 0);
+				for (int i = 0; i < stripe.count; i++)
+				{
+					Entry e = stripe.slots[(start + i) % capacity];
+					out[length++] = e.copy();
+					e.clear();
+				}
+				stripe.count = 0;
+			}
+		}
+		// Stripes are filled without the factory's queue lock, so they interleave, and can be slightly out of order.
+		Arrays.sort(out, 0, length, SEQUENCE_ORDER);
+		return Arrays.copyOfRange(out, Math.max(0, length - capacity), length);
+	}
+
+	/**
+	 * Writes drained messages to the target. Called on the logger thread.
+	 * @param entries the drained messages.
+	 */
+	void write(Entry[] entries)
+	{
+		for (Entry e : entries)
+		{
+			if (e.wasSentTo(target))
+				continue;
+			try {
+				String message = e.formatString != null ? String.format(e.formatString, e.args) : String.valueOf(e.message);
+				target.log(e.time, e.sequence, e.level, e.source, message, e.fields, e.context, e.origin, e.throwable);
+			} catch (Throwable t) {
+				t.printStackTrace(System.err);
+			}
+		}
+	}
+
+	/**
+	 * A ring of slots, written by the threads that map to it.
+	 */
+	private static class Stripe
+	{
+		/** The slots, allocated on first use. */
+		private Entry[] slots;
+		/** The index of the next slot to write. */
+		private int next;
+		/** The amount of filled slots. */
+		private int count;
+	}
+
+	/**
+	 * A recorded message slot.
+	 */
+	static class Entry
+	{
+		private long time;
+		private long sequence;
+		private LogLevel level;
+		private String source;
+		private Object message;
+		private String formatString;
+		private Object[] args;
+		private LogFields fields;
+		private LogContext context;
+		private LogOrigin origin;
+		private LoggingDriver[] drivers;
+		private Throwable throwable;
+
+		private void fill(long time, long sequence, LogLevel level, String source, Object message, String formatString, Object[] args, LogFields fields, LogContext context, LogOrigin origin, LoggingDriver[] drivers, Throwable throwable)
+		{
+			this.time = time;
+			this.sequence = sequence;
+			this.level = level;
+			this.source = source;
+			this.message = message;
+			this.formatString = formatString;
+			this.args = args;
+			this.fields = fields;
+			this.context = context;
+			this.origin = origin;
+			this.drivers = drivers;
+			this.throwable = throwable;
+		}
+
+		private boolean wasSentTo(LoggingDriver driver)
+		{
+			if (drivers != null)
+				for (LoggingDriver d : drivers)
+					if (d == driver)
+						return true;
+			return false;
+		}
+
+		private Entry copy()
+		{
+			Entry out = new Entry();
+			out.fill(time, sequence, level, source, message, formatString, args, fields, context, origin, drivers, throwable);
+			return out;
+		}
+
+		private void clear()
+		{
+			source = null;
+			message = null;
+			formatString = null;
+			args = null;
+			fields = null;
+			context = null;
+			origin = null;
+			drivers = null;
+			throwable = null;
+		}
+	}
+
+}
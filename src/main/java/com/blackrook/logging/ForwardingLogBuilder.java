@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging;
+
+import com.blackrook.logging.LoggingFactory.LogLevel;
+
+/**
+ * A structured log builder for {@link Logger} implementations that do not have their own.
+ * Fields are rendered after the message, and the result is passed to the logger's plain method for the level.
+ * Levels without a throwable method get the throwable appended to the message.
+ * @author Matthew Tropiano
+ */
+final class ForwardingLogBuilder implements LogBuilder
+{
+	/** The logger to forward to. */
+	private Logger logger;
+	/** The message level. */
+	private LogLevel level;
+	/** The rendered fields. */
+	private StringBuilder fields;
+	/** The throwable to output. */
+	private Throwable throwable;
+
+	ForwardingLogBuilder(Logger logger, LogLevel level)
+	{
+		this.logger = logger;
+		this.level = level;
+		this.fields = new StringBuilder();
+		this.throwable = null;
+	}
+
+	@Override
+	public boolean isEnabled()
+	{
+		return true;
+	}
+
+	@Override
+	public LogBuilder with(String name, Object value)
+	{
+		fields.append(' ').append(name).append('=').append(value);
+		return this;
+	}
+
+	@Override
+	public LogBuilder with(String name, long value)
+	{
+		fields.append(' ').append(name).append('=').append(value);
+		return this;
+	}
+
+	@Override
+	public LogBuilder with(String name, double value)
+	{
+		fields.append(' ').append(name).append('=').append(value);
+		return this;
+	}
+
+	@Override
+	public LogBuilder with(String name, boolean value)
+	{
+		fields.append(' ').append(name).append('=').append(value);
+		return this;
+	}
+
+	@Override
+	public LogBuilder with(Throwable t)
+	{
+		throwable = t;
+		return this;
+	}
+
+	@Override
+	public void log(Object message)
+	{
+		forward(String.valueOf(message));
+	}
+
+	@Override
+	public void logf(String formatString, Object... args)
+	{
+		forward(String.format(formatString, args));
+	}
+
+	private void forward(String message)
+	{
+		String text = message + fields;
+		switch (level)
+		{
+			case FATAL:
+				if (throwable != null)
+					logger.fatal(throwable, text);
+				else
+					logger.fatal(text);
+				break;
+			case SEVERE:
+				if (throwable != null)
+					logger.severe(throwable, text);
+				else
+					logger.severe(text);
+				break;
+			case ERROR:
+				if (throwable != null)
+					logger.error(throwable, text);
+				else
+					logger.error(text);
+				break;
+			case WARNING:
+				logger.warn(withThrowable(text));
+				break;
+			case INFO:
+				logger.info(withThrowable(text));
+				break;
+			default:
+			case DEBUG:
+				logger.debug(withThrowable(text));
+				break;
+		}
+	}
+
+	private String withThrowable(String text)
+	{
+		return throwable != null ? text + " " + throwable : text;
+	}
+
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging;
+
+/**
+ * A fluent builder for structured log messages, created via {@link Logger#atLevel(com.blackrook.logging.LoggingFactory.LogLevel)}
+ * and its shortcuts.
+ * <p>Builders are reused per thread, so a builder must not be kept past its terminating
+ * call to {@link #log(Object)} or {@link #logf(String, Object...)}, nor shared between threads.
+ * If the level is not loggable, a builder that does nothing is returned.</p>
+ * @author Matthew Tropiano
+ */
+public interface LogBuilder
+{
+	/**
+	 * @return true if this builder will log its message, false if it discards everything.
+	 */
+	public boolean isEnabled();
+
+	/**
+	 * Adds an object field.
+	 * @param name the field name.
+	 * @param value the field value.
+	 * @return this builder.
+	 */
+	public LogBuilder with(String name, Object value);
+
+	/**
+	 * Adds an integer field without boxing.
+	 * @param name the field name.
+	 * @param value the field value.
+	 * @return this builder.
+	 */
+	public LogBuilder with(String name, long value);
+
+	/**
+	 * Adds a floating-point field without boxing.
+	 * @param name the field name.
+	 * @param value the field value.
+	 * @return this builder.
+	 */
+	public LogBuilder with(String name, double value);
+
+	/**
+	 * Adds a boolean field without boxing.
+	 * @param name the field name.
+	 * @param value the field value.
+	 * @return this builder.
+	 */
+	public LogBuilder with(String name, boolean value);
+
+	/**
+	 * Sets the throwable to print along with the message.
+	 * @param t the throwable.
+	 * @return this builder.
+	 */
+	public LogBuilder with(Throwable t);
+
+	/**
+	 * Outputs the log message and its fields, and releases this builder.
+	 * @param message the object to convert to a string to dump.
+	 */
+	public void log(Object message);
+
+	/**
+	 * Outputs the log message, formatted, and its fields, and releases this builder.
+	 * @param formatString the formatting string to use to render the args.
+	 * @param args the additional parameters for the formatter.
+	 */
+	public void logf(String formatString, Object... args);
+
+}
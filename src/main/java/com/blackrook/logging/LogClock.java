@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging;
+
+import java.time.Instant;
+
+/**
+ * A source of timestamps for log messages, in nanoseconds since the epoch (1970-01-01T00:00:00Z).
+ * @author Matthew Tropiano
+ * @see LoggingFactory#setClock(LogClock)
+ */
+public abstract class LogClock
+{
+	/**
+	 * The system wall clock, at the best precision that the platform's {@link Instant#now()} provides.
+	 */
+	public static final LogClock SYSTEM = new SystemClock();
+
+	/**
+	 * A monotonic clock: the system wall clock is read once, and time advances from there using {@link System#nanoTime()}.
+	 * Timestamps never go backwards and have nanosecond resolution, but may drift
+	 * from the wall clock over a long-running process.
+	 */
+	public static final LogClock MONOTONIC = new MonotonicClock();
+
+	/**
+	 * A coarse, cached clock for throughput: the wall clock is sampled every millisecond by a background daemon thread,
+	 * and reading it is a single volatile read. Messages logged within the same millisecond share a timestamp,
+	 * so use the message sequence number to order them.
+	 * The background thread is started on first use, and stops after about a second without reads,
+	 * so an unused clock costs nothing. The first read after that restarts it.
+	 */
+	public static final LogClock COARSE = new CoarseClock();
+
+	/**
+	 * @return the current time in nanoseconds since the epoch.
+	 */
+	public abstract long epochNanos();
+
+	/**
+	 * Converts an {@link Instant} to nanoseconds since the epoch.
+	 * @param instant the instant.
+	 * @return the corresponding nanoseconds.
+	 */
+	protected static long toEpochNanos(Instant instant)
+	{
+		return instant.getEpochSecond() * 1000000000L + instant.getNano();
+	}
+
+	private static class SystemClock extends LogClock
+	{
+		@Override
+		public long epochNanos()
+		{
+			return toEpochNanos(Instant.now());
+		}
+	}
+
+	private static class MonotonicClock extends LogClock
+	{
+		private long epochBase;
+		private long nanoBase;
+
+		private MonotonicClock()
+		{
+			this.nanoBase = System.nanoTime();
+			this.epochBase = toEpochNanos(Instant.now());
+		}
+
+		@Override
+		public long epochNanos()
+		{
+			return epochBase + (System.nanoTime() - nanoBase);
+		}
+	}
+
+	private static class CoarseClock extends LogClock
+	{
+		/** Ticks without a read before the ticker thread stops. */
+		private static final int IDLE_TICKS = 1000;
+
+		private volatile long now;
+		private volatile boolean read;
+		private volatile boolean ticking;
+
+		@Override
+		public long epochNanos()
+		{
+			if (!ticking)
+				start();
+			if (!read)
+				read = true;
+			return now;
+		}
+
+		private synchronized void start()
+		{
+			if (ticking)
+				return;
+			now = System.currentTimeMillis() * 1000000L;
+			read = true;
+			ticking = true;
+			Thread t = new Thread("LogClock-Coarse")
+			{
+				@Override
+				public void run()
+				{
+					int idle = 0;
+					while (true)
+					{
+						try {
+							Thread.sleep(1L);
+						} catch (InterruptedException e) {
+							// Ignore.
+						}
+						now = System.currentTimeMillis() * 1000000L;
+						if (read)
+						{
+							read = false;
+							idle = 0;
+						}
+						else if (++idle >= IDLE_TICKS && stopIfIdle())
+						{
+							return;
+						}
+					}
+				}
+			};
+			t.setDaemon(true);
+			t.start();
+		}
+
+		/**
+		 * Stops ticking if nothing was read since the last tick.
+		 * @return true if stopped, false if not.
+		 */
+		private synchronized boolean stopIfIdle()
+		{
+			if (read)
+				return false;
+			ticking = false;
+			return true;
+		}
+	}
+
+}
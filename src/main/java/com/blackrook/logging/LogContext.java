@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * An immutable map of diagnostic context values (request IDs, tenant IDs, and so on)
+ * that is captured along with every log message.
+ * <p>Each thread has a current context, managed through the static methods on this class.
+ * Since contexts are immutable, capturing one into a queued message is just a reference copy,
+ * and "modifying" the current context swaps in a new one without disturbing messages already queued.</p>
+ * <p>Entries are kept sorted by key in flat arrays, which is the cheapest layout for the small
+ * maps that diagnostic contexts tend to be. Drivers can read them by index without allocating.</p>
+ * <p>For scoped use (for example, per request on a virtual thread), see {@link #runWith(LogContext, Runnable)} and
+ * {@link #callWith(LogContext, Callable)}, which restore the previous context when done. To carry a context across
+ * an executor, see {@link #wrap(Runnable)} and {@link #wrap(Callable)}.</p>
+ * @author Matthew Tropiano
+ */
+public final class LogContext
+{
+	/** The empty context. */
+	public static final LogContext EMPTY = new LogContext(new String[0], new String[0]);
+
+	/** The current context per thread. */
+	private static final ThreadLocal<LogContext> CURRENT = new ThreadLocal<LogContext>()
+	{
+		@Override
+		protected LogContext initialValue()
+		{
+			return EMPTY;
+		}
+	};
+
+	/** Sorted keys. */
+	private String[] keys;
+	/** Values, parallel to keys. */
+	private String[] values;
+
+	private LogContext(String[] keys, String[] values)
+	{
+		this.keys = keys;
+		this.values = values;
+	}
+
+	/**
+	 * @return the current thread's context. Never null.
+	 */
+	public static LogContext current()
+	{
+		return CURRENT.get();
+	}
+
+	/**
+	 * Replaces the current thread's context.
+	 * @param context the new context. If null, {@link #EMPTY} is used.
+	 * @return the previous context.
+	 */
+	public static LogContext set(LogContext context)
+	{
+		LogContext out = CURRENT.get();
+		CURRENT.set(context != null ? context : EMPTY);
+		return out;
+	}
+
+	/**
+	 * Sets a value in the current thread's context.
+	 * @param key the key.
+	 * @param value the value. If null, the key is removed.
+	 * @see #with(String, String)
+	 */
+	public static void put(String key, String value)
+	{
+		CURRENT.set(CURRENT.get().with(key, value));
+	}
+
+	/**
+	 * Removes a value from the current thread's context.
+	 * @param key the key.
+	 * @see #without(String)
+	 */
+	public static void remove(String key)
+	{
+		CURRENT.set(CURRENT.get().without(key));
+	}
+
+	/**
+	 * Clears the current thread's context.
+	 */
+	public static void clear()
+	{
+		CURRENT.remove();
+	}
+
+	/**
+	 * Runs a task with a specific context as the current thread's context,
+	 * restoring the previous context afterward.
+	 * @param context the context to use.
+	 * @param runnable the task to run.
+	 */
+	public static void runWith(LogContext context, Runnable runnable)
+	{
+		LogContext prev = set(context);
+		try {
+			runnable.run();
+		} finally {
+			CURRENT.set(prev);
+		}
+	}
+
+	/**
+	 * Calls a task with a specific context as the current thread's context,
+	 * restoring the previous context afterward.
+	 * @param <T> the task's return type.
+	 * @param context the context to use.
+	 * @param callable the task to call.
+	 * @return the task's result.
+	 * @throws Exception if the task throws an exception.
+	 */
+	public static <T> T callWith(LogContext context, Callable<T> callable) throws Exception
+	{
+		LogContext prev = set(context);
+		try {
+			return callable.call();
+		} finally {
+			CURRENT.set(prev);
+		}
+	}
+
+	/**
+	 * Wraps a task so that it runs with the calling thread's current context,
+	 * no matter which thread eventually runs it.
+	 * @param runnable the task to wrap.
+	 * @return the wrapped task.
+	 */
+	public static Runnable wrap(final Runnable runnable)
+	{
+		final LogContext context = current();
+		return new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				runWith(context, runnable);
+			}
+		};
+	}
+
+	/**
+	 * Wraps a task so that it is called with the calling thread's current context,
+	 * no matter which thread eventually calls it.
+	 * @param <T> the task's return type.
+	 * @param callable the task to wrap.
+	 * @return the wrapped task.
+	 */
+	public static <T> Callable<T> wrap(final Callable<T> callable)
+	{
+		final LogContext context = current();
+		return new Callable<T>()
+		{
+			@Override
+			public T call() throws Exception
+			{
+				return callWith(context, callable);
+			}
+		};
+	}
+
+	/**
+	 * Returns a context with a key set to a value.
+	 * This context is not changed.
+	 * @param key the key.
+	 * @param value the value. If null, this is the same as {@link #without(String)}.
+	 * @return the resultant context.
+	 * @throws NullPointerException if key is null.
+	 */
+	public LogContext with(String key, String value)
+	{
+		if (key == null)
+			throw new NullPointerException("key cannot be null");
+		if (value == null)
+			return without(key);
+
+		int index = Arrays.binarySearch(keys, key);
+		if (index >= 0)
+		{
+			if (value.equals(values[index]))
+				return this;
+			String[] newValues = Arrays.copyOf(values, values.length);
+			newValues[index] = value;
+			return new LogContext(keys, newValues);
+		}
+
+		index = -(index + 1);
+		String[] newKeys = new String[keys.length + 1];
+		String[] newValues = new String[values.length + 1];
+		System.arraycopy(keys, 0, newKeys, 0, index);
+		System.arraycopy(values, 0, newValues, 0, index);
+		newKeys[index] = key;
+		newValues[index] = value;
+		System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+		System.arraycopy(values, index, newValues, index + 1, values.length - index);
+		return new LogContext(newKeys, newValues);
+	}
+
+	/**
+	 * Returns a context without a key.
+	 * This context is not changed.
+	 * @param key the key.
+	 * @return the resultant context.
+	 */
+	public LogContext without(String key)
+	{
+		int index = key != null ? Arrays.binarySearch(keys, key) : -1;
+		if (index < 0)
+			return this;
+		if (keys.length == 1)
+			return EMPTY;
+
+		String[] newKeys = new String[keys.length - 1];
+		String[] newValues = new String[values.length - 1];
+		System.arraycopy(keys, 0, newKeys, 0, index);
+		System.arraycopy(values, 0, newValues, 0, index);
+		System.arraycopy(keys, index + 1, newKeys, index, keys.length - index - 1);
+		System.arraycopy(values, index + 1, newValues, index, values.length - index - 1);
+		return new LogContext(newKeys, newValues);
+	}
+
+	/**
+	 * Gets a value by key.
+	 * @param key the key.
+	 * @return the corresponding value, or null if no value.
+	 */
+	public String get(String key)
+	{
+		int index = key != null ? Arrays.binarySearch(keys, key) : -1;
+		return index >= 0 ? values[index] : null;
+	}
+
+	/**
+	 * @return the amount of entries in this context.
+	 */
+	public int size()
+	{
+		return keys.length;
+	}
+
+	/**
+	 * @return true if this context has no entries, false otherwise.
+	 */
+	public boolean isEmpty()
+	{
+		return keys.length == 0;
+	}
+
+	/**
+	 * Gets a key by index. Keys are in sorted order.
+	 * @param index the entry index.
+	 * @return the key at the index.
+	 * @throws IndexOutOfBoundsException if the index is out of range.
+	 */
+	public String getKey(int index)
+	{
+		return keys[index];
+	}
+
+	/**
+	 * Gets a value by index.
+	 * @param index the entry index.
+	 * @return the value at the index.
+	 * @throws IndexOutOfBoundsException if the index is out of range.
+	 */
+	public String getValue(int index)
+	{
+		return values[index];
+	}
+
+	/**
+	 * Appends this context to a {@link StringBuilder} as <code>{key=value, key=value}</code>.
+	 * @param sb the target builder.
+	 * @return the builder passed in.
+	 */
+	public StringBuilder appendTo(StringBuilder sb)
+	{
+		sb.append('{');
+		for (int i = 0; i < keys.length; i++)
+		{
+			if (i > 0)
+				sb.append(", ");
+			sb.append(keys[i]).append('=').append(values[i]);
+		}
+		return sb.append('}');
+	}
+
+	@Override
+	public String toString()
+	{
+		return appendTo(new StringBuilder()).toString();
+	}
+
+}
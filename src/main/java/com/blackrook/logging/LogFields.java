@@ -0,0 +1,334 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable, ordered set of typed key-value fields attached to a structured log message.
+ * <p>Primitive values are stored unboxed. Drivers can read fields by index without
+ * allocating anything, or iterate through them as {@link Field} views.
+ * @author Matthew Tropiano
+ * @see LogBuilder
+ */
+public final class LogFields implements Iterable<LogFields.Field>
+{
+	/** The empty set of fields. */
+	public static final LogFields EMPTY = new LogFields(new String[0], new Type[0], new long[0], null, 0);
+
+	/** Field value types. */
+	public static enum Type
+	{
+		OBJECT,
+		LONG,
+		DOUBLE,
+		BOOLEAN;
+	}
+
+	/** Field names. */
+	private String[] names;
+	/** Field types. */
+	private Type[] types;
+	/** Primitive values (doubles stored as raw long bits, booleans as 0/1). */
+	private long[] primitives;
+	/** Object values. Can be null if no field is an object. */
+	private Object[] objects;
+	/** Field count. */
+	private int size;
+
+	/**
+	 * Creates a new field set. The arrays are not copied.
+	 * @param names the field names.
+	 * @param types the field types.
+	 * @param primitives the primitive values.
+	 * @param objects the object values, or null if none.
+	 * @param size the amount of fields.
+	 */
+	LogFields(String[] names, Type[] types, long[] primitives, Object[] objects, int size)
+	{
+		this.names = names;
+		this.types = types;
+		this.primitives = primitives;
+		this.objects = objects;
+		this.size = size;
+	}
+
+	/**
+	 * @return the amount of fields in this set.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return true if this set has no fields, false otherwise.
+	 */
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * Gets a field name.
+	 * @param index the field index.
+	 * @return the name of the field at the index.
+	 * @throws IndexOutOfBoundsException if the index is out of range.
+	 */
+	public String getName(int index)
+	{
+		checkIndex(index);
+		return names[index];
+	}
+
+	/**
+	 * Gets a field type.
+	 * @param index the field index.
+	 * @return the type of the field at the index.
+	 * @throws IndexOutOfBoundsException if the index is out of range.
+	 */
+	public Type getType(int index)
+	{
+		checkIndex(index);
+		return types[index];
+	}
+
+	/**
+	 * Gets a field value as a long.
+	 * Doubles are truncated, booleans are 1 or 0, and objects are 0 unless they are {@link Number}s.
+	 * @param index the field index.
+	 * @return the value of the field at the index.
+	 * @throws IndexOutOfBoundsException if the index is out of range.
+	 */
+	public long getLong(int index)
+	{
+		checkIndex(index);
+		switch (types[index])
+		{
+			case LONG:
+			case BOOLEAN:
+				return primitives[index];
+			case DOUBLE:
+				return (long)Double.longBitsToDouble(primitives[index]);
+			default:
+				return objects[index] instanceof Number ? ((Number)objects[index]).longValue() : 0L;
+		}
+	}
+
+	/**
+	 * Gets a field value as a double.
+	 * Booleans are 1.0 or 0.0, and objects are 0.0 unless they are {@link Number}s.
+	 * @param index the field index.
+	 * @return the value of the field at the index.
+	 * @throws IndexOutOfBoundsException if the index is out of range.
+	 */
+	public double getDouble(int index)
+	{
+		checkIndex(index);
+		switch (types[index])
+		{
+			case LONG:
+			case BOOLEAN:
+				return (double)primitives[index];
+			case DOUBLE:
+				return Double.longBitsToDouble(primitives[index]);
+			default:
+				return objects[index] instanceof Number ? ((Number)objects[index]).doubleValue() : 0.0;
+		}
+	}
+
+	/**
+	 * Gets a field value as a boolean.
+	 * Numeric fields are true if nonzero, and objects are true only if they are {@link Boolean#TRUE}.
+	 * @param index the field index.
+	 * @return the value of the field at the index.
+	 * @throws IndexOutOfBoundsException if the index is out of range.
+	 */
+	public boolean getBoolean(int index)
+	{
+		checkIndex(index);
+		switch (types[index])
+		{
+			case LONG:
+			case BOOLEAN:
+				return primitives[index] != 0L;
+			case DOUBLE:
+				return Double.longBitsToDouble(primitives[index]) != 0.0;
+			default:
+				return Boolean.TRUE.equals(objects[index]);
+		}
+	}
+
+	/**
+	 * Gets a field value as an object.
+	 * Primitive fields are boxed by this call.
+	 * @param index the field index.
+	 * @return the value of the field at the index.
+	 * @throws IndexOutOfBoundsException if the index is out of range.
+	 */
+	public Object getObject(int index)
+	{
+		checkIndex(index);
+		switch (types[index])
+		{
+			case LONG:
+				return primitives[index];
+			case BOOLEAN:
+				return primitives[index] != 0L;
+			case DOUBLE:
+				return Double.longBitsToDouble(primitives[index]);
+			default:
+				return objects[index];
+		}
+	}
+
+	/**
+	 * Appends a field value to a {@link StringBuilder} without boxing primitives.
+	 * @param index the field index.
+	 * @param sb the target builder.
+	 * @return the builder passed in.
+	 * @throws IndexOutOfBoundsException if the index is out of range.
+	 */
+	public StringBuilder appendValue(int index, StringBuilder sb)
+	{
+		checkIndex(index);
+		switch (types[index])
+		{
+			case LONG:
+				return sb.append(primitives[index]);
+			case BOOLEAN:
+				return sb.append(primitives[index] != 0L);
+			case DOUBLE:
+				return sb.append(Double.longBitsToDouble(primitives[index]));
+			default:
+				return sb.append(objects[index]);
+		}
+	}
+
+	/**
+	 * Appends all fields to a {@link StringBuilder} as space-prefixed <code>name=value</code> pairs.
+	 * @param sb the target builder.
+	 * @return the builder passed in.
+	 */
+	public StringBuilder appendTo(StringBuilder sb)
+	{
+		for (int i = 0; i < size; i++)
+			appendValue(i, sb.append(' ').append(names[i]).append('='));
+		return sb;
+	}
+
+	private void checkIndex(int index)
+	{
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+	}
+
+	@Override
+	public Iterator<Field> iterator()
+	{
+		return new Iterator<Field>()
+		{
+			private int cur = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				return cur < size;
+			}
+
+			@Override
+			public Field next()
+			{
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return new Field(cur++);
+			}
+		};
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		appendTo(sb);
+		return sb.length() > 0 ? sb.substring(1) : "";
+	}
+
+	/**
+	 * A view of a single field in a field set.
+	 */
+	public final class Field
+	{
+		private int index;
+
+		private Field(int index)
+		{
+			this.index = index;
+		}
+
+		/**
+		 * @return the field name.
+		 */
+		public String getName()
+		{
+			return names[index];
+		}
+
+		/**
+		 * @return the field type.
+		 */
+		public Type getType()
+		{
+			return types[index];
+		}
+
+		/**
+		 * @return the field value as a long.
+		 * @see LogFields#getLong(int)
+		 */
+		public long getLong()
+		{
+			return LogFields.this.getLong(index);
+		}
+
+		/**
+		 * @return the field value as a double.
+		 * @see LogFields#getDouble(int)
+		 */
+		public double getDouble()
+		{
+			return LogFields.this.getDouble(index);
+		}
+
+		/**
+		 * @return the field value as a boolean.
+		 * @see LogFields#getBoolean(int)
+		 */
+		public boolean getBoolean()
+		{
+			return LogFields.this.getBoolean(index);
+		}
+
+		/**
+		 * @return the field value as an object.
+		 * @see LogFields#getObject(int)
+		 */
+		public Object getObject()
+		{
+			return LogFields.this.getObject(index);
+		}
+
+		@Override
+		public String toString()
+		{
+			return appendValue(index, new StringBuilder(names[index]).append('=')).toString();
+		}
+	}
+
+}
@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import com.blackrook.logging.LoggingFactory.LogLevel;
+
+/**
+ * A filter that decides whether a message that passed the logging level is written to drivers.
+ * <p>Filters are evaluated in two phases. The source phase only sees the level and source, and runs on the
+ * logging thread before the message is formatted or queued, so rejecting there costs almost nothing.
+ * The message phase sees the formatted message, fields and context, and runs on the factory's logger thread,
+ * so expensive checks (like regular expressions) are kept off of the threads doing the logging.
+ * A filter takes part in either or both phases, set on construction.</p>
+ * <p>Each filter counts how many times it was evaluated and how many messages it rejected.
+ * A message rejected in the source phase is not evaluated by the message phase of any filter.</p>
+ * @author Matthew Tropiano
+ * @see LoggingFactory#addFilter(LogFilter...)
+ */
+public abstract class LogFilter
+{
+	/** If true, evaluated in the source phase. */
+	private boolean sourcePhase;
+	/** If true, evaluated in the message phase. */
+	private boolean messagePhase;
+	/** Amount of evaluations. */
+	private LongAdder evaluated;
+	/** Amount of rejections. */
+	private LongAdder rejected;
+
+	/**
+	 * Creates a new filter.
+	 * @param sourcePhase if true, {@link #acceptSource(LogLevel, String)} is evaluated.
+	 * @param messagePhase if true, {@link #acceptMessage(LogLevel, String, String, LogFields, LogContext)} is evaluated.
+	 */
+	protected LogFilter(boolean sourcePhase, boolean messagePhase)
+	{
+		this.sourcePhase = sourcePhase;
+		this.messagePhase = messagePhase;
+		this.evaluated = new LongAdder();
+		this.rejected = new LongAdder();
+	}
+
+	/**
+	 * Creates a filter that only accepts sources named by, or under, one of a set of dotted prefixes.
+	 * A prefix of <code>com.example</code> matches <code>com.example</code> and <code>com.example.Thing</code>,
+	 * but not <code>com.examples</code>.
+	 * @param prefixes the source prefixes.
+	 * @return the new filter.
+	 */
+	public static LogFilter includeSources(final String... prefixes)
+	{
+		return new LogFilter(true, false)
+		{
+			@Override
+			protected boolean acceptSource(LogLevel level, String source)
+			{
+				return matchesAny(source, prefixes);
+			}
+		};
+	}
+
+	/**
+	 * Creates a filter that rejects sources named by, or under, one of a set of dotted prefixes.
+	 * @param prefixes the source prefixes.
+	 * @return the new filter.
+	 * @see #includeSources(String...)
+	 */
+	public static LogFilter excludeSources(final String... prefixes)
+	{
+		return new LogFilter(true, false)
+		{
+			@Override
+			protected boolean acceptSource(LogLevel level, String source)
+			{
+				return !matchesAny(source, prefixes);
+			}
+		};
+	}
+
+	/**
+	 * Creates a filter that only accepts messages at or more severe than a level, from sources named by,
+	 * or under, a dotted prefix. Messages from other sources are accepted.
+	 * <p>Unlike {@link LoggingFactory#setSourceLoggingLevel(String, LogLevel)}, this can only narrow what is logged.</p>
+	 * @param prefix the source prefix, or null for all sources.
+	 * @param level the least severe level accepted.
+	 * @return the new filter.
+	 */
+	public static LogFilter level(final String prefix, final LogLevel level)
+	{
+		return new LogFilter(true, false)
+		{
+			@Override
+			protected boolean acceptSource(LogLevel messageLevel, String source)
+			{
+				return messageLevel.ordinal() <= level.ordinal() || (prefix != null && !matches(source, prefix));
+			}
+		};
+	}
+
+	/**
+	 * Creates a filter that only accepts messages that contain a match for a regular expression.
+	 * @param pattern the pattern to find.
+	 * @return the new filter.
+	 */
+	public static LogFilter includeMessages(final Pattern pattern)
+	{
+		return new LogFilter(false, true)
+		{
+			@Override
+			protected boolean acceptMessage(LogLevel level, String source, String message, LogFields fields, LogContext context)
+			{
+				return message != null && pattern.matcher(message).find();
+			}
+		};
+	}
+
+	/**
+	 * Creates a filter that rejects messages that contain a match for a regular expression.
+	 * @param pattern the pattern to find.
+	 * @return the new filter.
+	 */
+	public static LogFilter excludeMessages(final Pattern pattern)
+	{
+		return new LogFilter(false, true)
+		{
+			@Override
+			protected boolean acceptMessage(LogLevel level, String source, String message, LogFields fields, LogContext context)
+			{
+				return message == null || !pattern.matcher(message).find();
+			}
+		};
+	}
+
+	/**
+	 * Creates a filter that only accepts messages with a named field or context value
+	 * that contains a match for a regular expression. Fields are checked before the context.
+	 * This can be used to mark messages, for example with a <code>marker</code> field.
+	 * @param name the field or context key.
+	 * @param pattern the pattern to find in the value's string form.
+	 * @return the new filter.
+	 */
+	public static LogFilter includeValues(final String name, final Pattern pattern)
+	{
+		return new LogFilter(false, true)
+		{
+			@Override
+			protected boolean acceptMessage(LogLevel level, String source, String message, LogFields fields, LogContext context)
+			{
+				return matchesValue(name, pattern, fields, context);
+			}
+		};
+	}
+
+	/**
+	 * Creates a filter that rejects messages with a named field or context value
+	 * that contains a match for a regular expression. Fields are checked before the context.
+	 * @param name the field or context key.
+	 * @param pattern the pattern to find in the value's string form.
+	 * @return the new filter.
+	 * @see #includeValues(String, Pattern)
+	 */
+	public static LogFilter excludeValues(final String name, final Pattern pattern)
+	{
+		return new LogFilter(false, true)
+		{
+			@Override
+			protected boolean acceptMessage(LogLevel level, String source, String message, LogFields fields, LogContext context)
+			{
+				return !matchesValue(name, pattern, fields, context);
+			}
+		};
+	}
+
+	/**
+	 * @return true if this filter is evaluated in the source phase, false if not.
+	 */
+	public boolean isSourcePhase()
+	{
+		return sourcePhase;
+	}
+
+	/**
+	 * @return true if this filter is evaluated in the message phase, false if not.
+	 */
+	public boolean isMessagePhase()
+	{
+		return messagePhase;
+	}
+
+	/**
+	 * @return the amount of times this filter was evaluated, over both phases.
+	 */
+	public long getEvaluatedCount()
+	{
+		return evaluated.sum();
+	}
+
+	/**
+	 * @return the amount of messages this filter rejected.
+	 */
+	public long getRejectedCount()
+	{
+		return rejected.sum();
+	}
+
+	/**
+	 * Resets this filter's counts to zero.
+	 */
+	public void resetCounts()
+	{
+		evaluated.reset();
+		rejected.reset();
+	}
+
+	/**
+	 * Checks if a message should be logged, by level and source.
+	 * Called on the logging thread, so this should be cheap.
+	 * The default implementation accepts everything.
+	 * @param level the message level.
+	 * @param source the source name.
+	 * @return true to accept, false to reject.
+	 */
+	protected boolean acceptSource(LogLevel level, String source)
+	{
+		return true;
+	}
+
+	/**
+	 * Checks if a message should be logged, by its formatted contents.
+	 * Called on the logger thread.
+	 * The default implementation accepts everything.
+	 * @param level the message level.
+	 * @param source the source name.
+	 * @param message the formatted message.
+	 * @param fields the message fields.
+	 * @param context the logging context at the time of the message.
+	 * @return true to accept, false to reject.
+	 */
+	protected boolean acceptMessage(LogLevel level, String source, String message, LogFields fields, LogContext context)
+	{
+		return true;
+	}
+
+	/**
+	 * Evaluates the source phase and counts the result.
+	 */
+	final boolean testSource(LogLevel level, String source)
+	{
+		evaluated.increment();
+		if (acceptSource(level, source))
+			return true;
+		rejected.increment();
+		return false;
+	}
+
+	/**
+	 * Evaluates the message phase and counts the result.
+	 */
+	final boolean testMessage(LogLevel level, String source, String message, LogFields fields, LogContext context)
+	{
+		evaluated.increment();
+		if (acceptMessage(level, source, message, fields, context))
+			return true;
+		rejected.increment();
+		return false;
+	}
+
+	/**
+	 * Checks if a source is named by, or is under, a dotted prefix.
+	 * @param source the source name.
+	 * @param prefix the prefix.
+	 * @return true if so, false if not.
+	 */
+	static boolean matches(String source, String prefix)
+	{
+		if (source == null || !source.startsWith(prefix))
+			return false;
+		return source.length() == prefix.length() || source.charAt(prefix.length()) == '.';
+	}
+
+	private static boolean matchesAny(String source, String[] prefixes)
+	{
+		for (String p : prefixes)
+			if (matches(source, p))
+				return true;
+		return false;
+	}
+
+	private static boolean matchesValue(String name, Pattern pattern, LogFields fields, LogContext context)
+	{
+		for (int i = 0; i < fields.size(); i++)
+		{
+			if (name.equals(fields.getName(i)))
+			{
+				return pattern.matcher(fields.appendValue(i, new StringBuilder())).find();
+			}
+		}
+		String value = context != null ? context.get(name) : null;
+		return value != null && pattern.matcher(value).find();
+	}
+
+}
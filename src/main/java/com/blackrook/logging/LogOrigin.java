@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging;
+
+import java.lang.StackWalker.StackFrame;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Describes where a log message came from: the thread that produced it and, optionally, the calling code location.
+ * <p>This is only captured if a driver asks for it (see {@link LoggingDriver#usesThreadInfo()} and
+ * {@link LoggingDriver#usesCallerInfo()}), since finding the caller requires walking the producer's stack.
+ * Caller locations are cached per call site, so repeated messages from the same line share one location object.</p>
+ * <p>On Java 9 or later, callers are found with a {@link StackWalker}, which is only loaded the first time
+ * a caller is captured. On Java 8, a stack trace is taken instead, which is much slower.</p>
+ * @author Matthew Tropiano
+ */
+public final class LogOrigin
+{
+	/** Class name prefix for frames internal to the logging factory. */
+	private static final String FACTORY_CLASS_NAME = LoggingFactory.class.getName();
+	/** Class name prefix for frames internal to this class. */
+	private static final String ORIGIN_CLASS_NAME = LogOrigin.class.getName();
+	/** If true, {@link StackWalker} is available. */
+	private static final boolean HAS_STACK_WALKER = hasStackWalker();
+
+	/** Thread id. */
+	private long threadId;
+	/** Thread name. */
+	private String threadName;
+	/** Caller location. Can be null. */
+	private Caller caller;
+
+	private LogOrigin(long threadId, String threadName, Caller caller)
+	{
+		this.threadId = threadId;
+		this.threadName = threadName;
+		this.caller = caller;
+	}
+
+	/**
+	 * Captures the origin of a log message on the current thread.
+	 * Must be called from within the logging factory.
+	 * @param withThread if true, capture the thread id and name.
+	 * @param withCaller if true, capture the caller location.
+	 * @return a new origin, or null if nothing was captured.
+	 */
+	static LogOrigin capture(boolean withThread, boolean withCaller)
+	{
+		if (!withThread && !withCaller)
+			return null;
+		Thread thread = withThread ? Thread.currentThread() : null;
+		return new LogOrigin(
+			thread != null ? thread.getId() : -1L,
+			thread != null ? thread.getName() : null,
+			withCaller ? findCaller() : null
+		);
+	}
+
+	private static boolean hasStackWalker()
+	{
+		try {
+			Class.forName("java.lang.StackWalker");
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	private static boolean isCallerClass(String name)
+	{
+		return !name.startsWith(FACTORY_CLASS_NAME) && !name.startsWith(ORIGIN_CLASS_NAME);
+	}
+
+	private static Caller findCaller()
+	{
+		if (HAS_STACK_WALKER)
+			return Walker.findCaller();
+
+		for (StackTraceElement element : new Throwable().getStackTrace())
+			if (isCallerClass(element.getClassName()))
+				return new Caller(element.getClassName(), element.getMethodName(), element.getFileName(), element.getLineNumber());
+		return null;
+	}
+
+	/**
+	 * @return true if thread info was captured, false if not.
+	 */
+	public boolean hasThreadInfo()
+	{
+		return threadName != null;
+	}
+
+	/**
+	 * @return true if caller info was captured, false if not.
+	 */
+	public boolean hasCallerInfo()
+	{
+		return caller != null;
+	}
+
+	/**
+	 * @return the id of the producing thread, or -1 if not captured.
+	 */
+	public long getThreadId()
+	{
+		return threadId;
+	}
+
+	/**
+	 * @return the name of the producing thread at the time of logging, or null if not captured.
+	 */
+	public String getThreadName()
+	{
+		return threadName;
+	}
+
+	/**
+	 * @return the fully-qualified name of the calling class, or null if not captured.
+	 */
+	public String getCallerClassName()
+	{
+		return caller != null ? caller.className : null;
+	}
+
+	/**
+	 * @return the name of the calling method, or null if not captured.
+	 */
+	public String getCallerMethodName()
+	{
+		return caller != null ? caller.methodName : null;
+	}
+
+	/**
+	 * @return the source file name of the calling class, or null if not captured or unknown.
+	 */
+	public String getCallerFileName()
+	{
+		return caller != null ? caller.fileName : null;
+	}
+
+	/**
+	 * @return the source line number of the call, or a negative number if not captured or unknown.
+	 */
+	public int getCallerLineNumber()
+	{
+		return caller != null ? caller.lineNumber : -1;
+	}
+
+	/**
+	 * Appends the caller location to a {@link StringBuilder} in stack trace form,
+	 * for example <code>com.example.Thing.method(Thing.java:12)</code>.
+	 * Nothing is appended if the caller was not captured.
+	 * @param sb the target builder.
+	 * @return the builder passed in.
+	 */
+	public StringBuilder appendCallerTo(StringBuilder sb)
+	{
+		if (caller == null)
+			return sb;
+		sb.append(caller.className).append('.').append(caller.methodName).append('(');
+		if (caller.fileName == null)
+			sb.append("Unknown Source");
+		else if (caller.lineNumber >= 0)
+			sb.append(caller.fileName).append(':').append(caller.lineNumber);
+		else
+			sb.append(caller.fileName);
+		return sb.append(')');
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		if (threadName != null)
+			sb.append(threadName).append('#').append(threadId);
+		if (caller != null)
+			appendCallerTo(sb.length() > 0 ? sb.append(' ') : sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Finds callers with a {@link StackWalker}.
+	 * Kept in its own class so that it is not loaded on runtimes without one.
+	 */
+	private static class Walker
+	{
+		/** Maximum amount of cached call sites before the cache is reset. */
+		private static final int MAX_CALL_SITES = 4096;
+		/** The stack walker for finding callers. */
+		private static final StackWalker WALKER = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+		/** Cache of call sites to caller locations. */
+		private static final Map<CallSite, Caller> CALLER_CACHE = new ConcurrentHashMap<CallSite, Caller>();
+
+		/** Finds the first frame outside of the logging factory. */
+		private static final Function<Stream<StackFrame>, StackFrame> FIND_CALLER = new Function<Stream<StackFrame>, StackFrame>()
+		{
+			@Override
+			public StackFrame apply(Stream<StackFrame> frames)
+			{
+				Iterator<StackFrame> it = frames.iterator();
+				while (it.hasNext())
+				{
+					StackFrame frame = it.next();
+					if (isCallerClass(frame.getClassName()))
+						return frame;
+				}
+				return null;
+			}
+		};
+
+		private static Caller findCaller()
+		{
+			StackFrame frame = WALKER.walk(FIND_CALLER);
+			if (frame == null)
+				return null;
+
+			CallSite site = new CallSite(frame.getDeclaringClass(), frame.getMethodName(), frame.getByteCodeIndex());
+			Caller out;
+			if ((out = CALLER_CACHE.get(site)) == null)
+			{
+				if (CALLER_CACHE.size() >= MAX_CALL_SITES)
+					CALLER_CACHE.clear();
+				out = new Caller(frame.getClassName(), frame.getMethodName(), frame.getFileName(), frame.getLineNumber());
+				CALLER_CACHE.put(site, out);
+			}
+			return out;
+		}
+	}
+
+	/**
+	 * Call site cache key.
+	 */
+	private static class CallSite
+	{
+		private Class<?> declaringClass;
+		private String methodName;
+		private int byteCodeIndex;
+
+		private CallSite(Class<?> declaringClass, String methodName, int byteCodeIndex)
+		{
+			this.declaringClass = declaringClass;
+			this.methodName = methodName;
+			this.byteCodeIndex = byteCodeIndex;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (declaringClass.hashCode() * 31 + methodName.hashCode()) * 31 + byteCodeIndex;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof CallSite))
+				return false;
+			CallSite site = (CallSite)obj;
+			return declaringClass == site.declaringClass
+				&& byteCodeIndex == site.byteCodeIndex
+				&& methodName.equals(site.methodName);
+		}
+	}
+
+	/**
+	 * Resolved caller location.
+	 */
+	private static class Caller
+	{
+		private String className;
+		private String methodName;
+		private String fileName;
+		private int lineNumber;
+
+		private Caller(String className, String methodName, String fileName, int lineNumber)
+		{
+			this.className = className;
+			this.methodName = methodName;
+			this.fileName = fileName;
+			this.lineNumber = lineNumber;
+		}
+	}
+
+}
@@ -27,6 +27,79 @@ public interface Logger
 	 */
 	public LogLevel getLoggingLevel();
 
+	/**
+	 * Starts a structured log message at a specific level.
+	 * If the level is not loggable, the returned builder does nothing.
+	 * <p>The default implementation, for loggers without structured support, renders the fields
+	 * after the message and passes it to this logger's method for the level.</p>
+	 * @param level the logging level of the message.
+	 * @return a builder for adding fields to the message.
+	 */
+	public default LogBuilder atLevel(LogLevel level)
+	{
+		return new ForwardingLogBuilder(this, level);
+	}
+
+	/**
+	 * Starts a structured FATAL log message.
+	 * @return a builder for adding fields to the message.
+	 * @see #atLevel(LogLevel)
+	 */
+	public default LogBuilder atFatal()
+	{
+		return atLevel(LogLevel.FATAL);
+	}
+
+	/**
+	 * Starts a structured SEVERE log message.
+	 * @return a builder for adding fields to the message.
+	 * @see #atLevel(LogLevel)
+	 */
+	public default LogBuilder atSevere()
+	{
+		return atLevel(LogLevel.SEVERE);
+	}
+
+	/**
+	 * Starts a structured ERROR log message.
+	 * @return a builder for adding fields to the message.
+	 * @see #atLevel(LogLevel)
+	 */
+	public default LogBuilder atError()
+	{
+		return atLevel(LogLevel.ERROR);
+	}
+
+	/**
+	 * Starts a structured WARNING log message.
+	 * @return a builder for adding fields to the message.
+	 * @see #atLevel(LogLevel)
+	 */
+	public default LogBuilder atWarning()
+	{
+		return atLevel(LogLevel.WARNING);
+	}
+
+	/**
+	 * Starts a structured INFO log message.
+	 * @return a builder for adding fields to the message.
+	 * @see #atLevel(LogLevel)
+	 */
+	public default LogBuilder atInfo()
+	{
+		return atLevel(LogLevel.INFO);
+	}
+
+	/**
+	 * Starts a structured DEBUG log message.
+	 * @return a builder for adding fields to the message.
+	 * @see #atLevel(LogLevel)
+	 */
+	public default LogBuilder atDebug()
+	{
+		return atLevel(LogLevel.DEBUG);
+	}
+
 	/**
 	 * Outputs a FATAL log message.
 	 * @param message the object to convert to a string to dump.
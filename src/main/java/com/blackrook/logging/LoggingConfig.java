@@ -0,0 +1,409 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import com.blackrook.logging.LoggingFactory.LogLevel;
+import com.blackrook.logging.driver.ConsoleLogger;
+import com.blackrook.logging.driver.FileLogger;
+import com.blackrook.logging.driver.GZipFileLogger;
+import com.blackrook.logging.driver.LayoutDriver;
+import com.blackrook.logging.driver.LogLayout;
+import com.blackrook.logging.driver.PrintStreamLogger;
+import com.blackrook.logging.driver.SocketLogger;
+import com.blackrook.logging.util.Utils;
+
+/**
+ * A logging configuration: a logging level, per-source logging levels, and a set of named drivers,
+ * read from a properties file and applied to a factory via {@link LoggingFactory#apply(LoggingConfig)}.
+ * <p>The recognized properties are:</p>
+ * <pre>
+ * # Factory logging level (default DEBUG).
+ * level=INFO
+ * # Source logging levels, by source name or dotted prefix.
+ * level.com.example.db=DEBUG
+ * # Driver names, in output order.
+ * drivers=console, file
+ * # Drivers: type is console, stderr, file, gzip, socket, or a class name with a public no-arg constructor.
+ * driver.console.type=console
+ * driver.file.type=file
+ * driver.file.path=/var/log/app.log
+ * driver.file.append=true
+ * driver.gz.type=gzip
+ * driver.gz.path=/var/log/app.log.gz
+ * driver.gz.blockSize=65536
+ * driver.gz.flushInterval=1000
+ * driver.gz.compressorThread=false
+ * driver.gz.append=true
+ * driver.net.type=socket
+ * driver.net.host=localhost
+ * driver.net.port=5140
+ * driver.net.protocol=TCP
+ * driver.net.framing=NEWLINE
+ * driver.net.bufferSize=1048576
+ * driver.net.overflow=DROP_OLDEST
+ * driver.net.connectTimeout=2000
+ * # Layout options, for all built-in drivers, and class drivers that implement LayoutDriver.
+ * driver.file.showThread=true
+ * driver.file.showCaller=false
+ * driver.file.showSequence=false
+ * driver.file.secondFractionDigits=3
+ * </pre>
+ * <p>When a configuration is read with a previous one, drivers with the same name and definition
+ * (ignoring layout options) are reused rather than reopened, so connections are kept. Layout changes to reused
+ * drivers take effect when the configuration is applied, in order with the messages already queued.
+ * File and gzip drivers append to their files unless <code>append</code> is false, so a driver that is recreated,
+ * or that goes back to a path used by any earlier configuration, keeps what was written there.
+ * A driver that does not append replaces its file each time it is recreated.</p>
+ * @author Matthew Tropiano
+ * @see LoggingConfigWatcher
+ */
+public final class LoggingConfig
+{
+	/** Properties that only affect a driver's layout, and can change without recreating it. */
+	private static final String[] LAYOUT_KEYS = {"showThread", "showCaller", "showSequence", "secondFractionDigits"};
+
+	/** The factory logging level. */
+	private LogLevel loggingLevel;
+	/** The source logging levels. */
+	private Map<String, LogLevel> sourceLoggingLevels;
+	/** The drivers by name, in order. */
+	private Map<String, LoggingDriver> drivers;
+	/** The driver definitions by name, minus layout options. */
+	private Map<String, Map<String, String>> definitions;
+	/** New layouts for drivers reused from the previous configuration. */
+	private Map<LayoutDriver, LogLayout> layouts;
+
+	private LoggingConfig()
+	{
+		this.loggingLevel = LogLevel.DEBUG;
+		this.sourceLoggingLevels = new HashMap<String, LogLevel>();
+		this.drivers = new LinkedHashMap<String, LoggingDriver>();
+		this.definitions = new HashMap<String, Map<String, String>>();
+		this.layouts = new HashMap<LayoutDriver, LogLayout>();
+	}
+
+	/**
+	 * Reads a configuration from a properties file.
+	 * @param file the file to read.
+	 * @return the new configuration.
+	 * @throws IOException if the file could not be read, or a driver could not be opened.
+	 * @throws IllegalArgumentException if a property value is invalid.
+	 */
+	public static LoggingConfig read(File file) throws IOException
+	{
+		return read(file, null);
+	}
+
+	/**
+	 * Reads a configuration from a properties file, reusing unchanged drivers from a previous configuration.
+	 * @param file the file to read.
+	 * @param previous the previous configuration, or null for none.
+	 * @return the new configuration.
+	 * @throws IOException if the file could not be read, or a driver could not be opened.
+	 * @throws IllegalArgumentException if a property value is invalid.
+	 */
+	public static LoggingConfig read(File file, LoggingConfig previous) throws IOException
+	{
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(file))
+		{
+			properties.load(in);
+		}
+		return parse(properties, previous);
+	}
+
+	/**
+	 * Creates a configuration from a set of properties, reusing unchanged drivers from a previous configuration.
+	 * If this fails, any drivers that it created are closed.
+	 * @param properties the properties.
+	 * @param previous the previous configuration, or null for none.
+	 * @return the new configuration.
+	 * @throws IOException if a driver could not be opened.
+	 * @throws IllegalArgumentException if a property value is invalid.
+	 */
+	public static LoggingConfig parse(Properties properties, LoggingConfig previous) throws IOException
+	{
+		LoggingConfig out = new LoggingConfig();
+		boolean success = false;
+		try {
+			String level = properties.getProperty("level");
+			if (level != null)
+				out.loggingLevel = parseLevel("level", level);
+
+			for (String key : properties.stringPropertyNames())
+				if (key.startsWith("level."))
+					out.sourceLoggingLevels.put(key.substring(6), parseLevel(key, properties.getProperty(key)));
+
+			String driverList = properties.getProperty("drivers", "").trim();
+			for (String name : driverList.isEmpty() ? new String[0] : driverList.split("\\s*,\\s*"))
+			{
+				if (out.drivers.containsKey(name))
+					throw new IllegalArgumentException("Driver \"" + name + "\" is listed more than once.");
+
+				Map<String, String> definition = new TreeMap<String, String>();
+				Map<String, String> layoutOptions = new HashMap<String, String>();
+				String prefix = "driver." + name + ".";
+				for (String key : properties.stringPropertyNames())
+				{
+					if (!key.startsWith(prefix))
+						continue;
+					String option = key.substring(prefix.length());
+					if (isLayoutKey(option))
+						layoutOptions.put(option, properties.getProperty(key).trim());
+					else
+						definition.put(option, properties.getProperty(key).trim());
+				}
+
+				LoggingDriver driver;
+				boolean reused = previous != null && definition.equals(previous.definitions.get(name));
+				if (reused)
+					driver = previous.drivers.get(name);
+				else
+					driver = out.createDriver(name, definition);
+
+				out.drivers.put(name, driver);
+				out.definitions.put(name, definition);
+				if (driver instanceof LayoutDriver)
+				{
+					LogLayout layout = parseLayout(name, layoutOptions);
+					// Reused drivers are live - their layout changes when this is applied.
+					if (reused)
+						out.layouts.put((LayoutDriver)driver, layout);
+					else
+						((LayoutDriver)driver).setLayout(layout);
+				}
+			}
+
+			success = true;
+		} finally {
+			if (!success)
+			{
+				for (LoggingDriver d : out.drivers.values())
+					if (previous == null || !previous.drivers.containsValue(d))
+						closeDriver(d);
+			}
+		}
+
+		out.sourceLoggingLevels = Collections.unmodifiableMap(out.sourceLoggingLevels);
+		return out;
+	}
+
+	/**
+	 * @return the factory logging level.
+	 */
+	public LogLevel getLoggingLevel()
+	{
+		return loggingLevel;
+	}
+
+	/**
+	 * @return an unmodifiable map of source names (or dotted prefixes) to logging levels.
+	 */
+	public Map<String, LogLevel> getSourceLoggingLevels()
+	{
+		return sourceLoggingLevels;
+	}
+
+	/**
+	 * @return the drivers, in configured order.
+	 */
+	public LoggingDriver[] getDrivers()
+	{
+		return drivers.values().toArray(new LoggingDriver[drivers.size()]);
+	}
+
+	/**
+	 * Gets a driver by name.
+	 * @param name the driver name.
+	 * @return the corresponding driver, or null if no driver by that name.
+	 */
+	public LoggingDriver getDriver(String name)
+	{
+		return drivers.get(name);
+	}
+
+	/**
+	 * Sets the layouts of drivers reused from the previous configuration.
+	 * Called by the factory's logger thread, after the messages queued before this was applied.
+	 */
+	void applyLayouts()
+	{
+		for (Map.Entry<LayoutDriver, LogLayout> entry : layouts.entrySet())
+			entry.getKey().setLayout(entry.getValue());
+	}
+
+	/**
+	 * @return true if this changes the layouts of drivers reused from the previous configuration.
+	 */
+	boolean hasLayouts()
+	{
+		return !layouts.isEmpty();
+	}
+
+	private LoggingDriver createDriver(String name, Map<String, String> definition) throws IOException
+	{
+		String type = definition.get("type");
+		if (type == null)
+			throw new IllegalArgumentException("Driver \"" + name + "\" has no type.");
+
+		switch (type)
+		{
+			case "console":
+				return new ConsoleLogger();
+			case "stderr":
+				return new PrintStreamLogger(System.err);
+			case "file":
+				return new FileLogger(new File(require(name, definition, "path")), parseBoolean(name, definition, "append", true));
+			case "gzip":
+				return new GZipFileLogger(
+					new File(require(name, definition, "path")),
+					parseInt(name, definition, "blockSize", GZipFileLogger.DEFAULT_BLOCK_SIZE),
+					parseLong(name, definition, "flushInterval", GZipFileLogger.DEFAULT_FLUSH_INTERVAL),
+					Boolean.parseBoolean(definition.get("compressorThread")),
+					parseBoolean(name, definition, "append", true)
+				);
+			case "socket":
+			{
+				InetSocketAddress address = new InetSocketAddress(require(name, definition, "host"), parseInt(name, definition, "port", -1));
+				SocketLogger out = new SocketLogger(
+					address,
+					parseEnum(name, definition, "protocol", SocketLogger.Protocol.class, SocketLogger.Protocol.TCP),
+					parseEnum(name, definition, "framing", SocketLogger.Framing.class, SocketLogger.Framing.NEWLINE),
+					parseInt(name, definition, "bufferSize", SocketLogger.DEFAULT_BUFFER_SIZE),
+					parseEnum(name, definition, "overflow", SocketLogger.OverflowPolicy.class, SocketLogger.OverflowPolicy.DROP_OLDEST)
+				);
+				try {
+					out.setReconnectDelay(
+						parseLong(name, definition, "reconnectDelay", SocketLogger.DEFAULT_RECONNECT_DELAY),
+						parseLong(name, definition, "maxReconnectDelay", SocketLogger.DEFAULT_MAX_RECONNECT_DELAY)
+					);
+					out.setConnectTimeout(parseLong(name, definition, "connectTimeout", SocketLogger.DEFAULT_CONNECT_TIMEOUT));
+				} catch (IllegalArgumentException e) {
+					out.close();
+					throw e;
+				}
+				return out;
+			}
+			default:
+			{
+				try {
+					return (LoggingDriver)Class.forName(type).getConstructor().newInstance();
+				} catch (ClassCastException | ReflectiveOperationException e) {
+					throw new IllegalArgumentException("Driver \"" + name + "\" type could not be created: " + type, e);
+				}
+			}
+		}
+	}
+
+	private static boolean isLayoutKey(String option)
+	{
+		for (String k : LAYOUT_KEYS)
+			if (k.equals(option))
+				return true;
+		return false;
+	}
+
+	private static LogLayout parseLayout(String name, Map<String, String> options)
+	{
+		LogLayout out = new LogLayout(
+			Boolean.parseBoolean(options.get("showThread")),
+			Boolean.parseBoolean(options.get("showCaller"))
+		);
+		out.setShowSequence(Boolean.parseBoolean(options.get("showSequence")));
+		out.setSecondFractionDigits(parseInt(name, options, "secondFractionDigits", 3));
+		return out;
+	}
+
+	private static void closeDriver(LoggingDriver driver)
+	{
+		if (driver instanceof AutoCloseable)
+			Utils.close((AutoCloseable)driver);
+	}
+
+	private static LogLevel parseLevel(String key, String value)
+	{
+		try {
+			return LogLevel.valueOf(value.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Bad logging level for \"" + key + "\": " + value);
+		}
+	}
+
+	private static String require(String name, Map<String, String> definition, String option)
+	{
+		String out = definition.get(option);
+		if (out == null || out.isEmpty())
+			throw new IllegalArgumentException("Driver \"" + name + "\" is missing \"" + option + "\".");
+		return out;
+	}
+
+	private static int parseInt(String name, Map<String, String> options, String option, int def)
+	{
+		String value = options.get(option);
+		if (value == null)
+		{
+			if (def < 0)
+				throw new IllegalArgumentException("Driver \"" + name + "\" is missing \"" + option + "\".");
+			return def;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Driver \"" + name + "\" has a bad value for \"" + option + "\": " + value);
+		}
+	}
+
+	private static long parseLong(String name, Map<String, String> options, String option, long def)
+	{
+		String value = options.get(option);
+		if (value == null)
+			return def;
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Driver \"" + name + "\" has a bad value for \"" + option + "\": " + value);
+		}
+	}
+
+	private static boolean parseBoolean(String name, Map<String, String> options, String option, boolean def)
+	{
+		String value = options.get(option);
+		if (value == null)
+			return def;
+		else if ("true".equalsIgnoreCase(value))
+			return true;
+		else if ("false".equalsIgnoreCase(value))
+			return false;
+		throw new IllegalArgumentException("Driver \"" + name + "\" has a bad value for \"" + option + "\": " + value);
+	}
+
+	private static <E extends Enum<E>> E parseEnum(String name, Map<String, String> options, String option, Class<E> type, E def)
+	{
+		String value = options.get(option);
+		if (value == null)
+			return def;
+		try {
+			return Enum.valueOf(type, value.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Driver \"" + name + "\" has a bad value for \"" + option + "\": " + value);
+		}
+	}
+
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import com.blackrook.logging.util.Utils;
+
+/**
+ * Applies a configuration file to a logging factory, and applies it again whenever the file changes.
+ * <p>Each reload is read completely and then applied in one step via {@link LoggingFactory#apply(LoggingConfig)},
+ * so logging threads never see a partial configuration and queued messages are not lost. If a reload fails
+ * (for instance, the file is invalid or was caught mid-write), the error is printed to {@link System#err}
+ * and the current configuration stays in effect.</p>
+ * @author Matthew Tropiano
+ * @see LoggingConfig
+ */
+public class LoggingConfigWatcher implements Closeable
+{
+	/** Time to let a burst of file changes settle before reloading, in milliseconds. */
+	private static final long SETTLE_TIME = 100L;
+	/** Longest time to wait for changes to settle, in milliseconds. */
+	private static final long MAX_SETTLE_TIME = 1000L;
+
+	/** The factory to configure. */
+	private LoggingFactory factory;
+	/** The configuration file. */
+	private File file;
+	/** The current configuration. */
+	private LoggingConfig config;
+	/** The watch service. */
+	private WatchService watchService;
+	/** The watching thread. */
+	private WatchThread watchThread;
+
+	/**
+	 * Reads and applies a configuration file to a factory, and starts watching it for changes.
+	 * @param factory the factory to configure.
+	 * @param file the configuration file.
+	 * @throws IOException if the file could not be read or watched, or a driver could not be opened.
+	 * @throws IllegalArgumentException if a property value in the file is invalid.
+	 */
+	public LoggingConfigWatcher(LoggingFactory factory, File file) throws IOException
+	{
+		this.factory = factory;
+		this.file = file.getAbsoluteFile();
+		this.config = null;
+		reload();
+
+		Path dir = this.file.getParentFile().toPath();
+		this.watchService = dir.getFileSystem().newWatchService();
+		dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		(this.watchThread = new WatchThread()).start();
+	}
+
+	/**
+	 * @return the configuration file.
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * @return the configuration currently applied.
+	 */
+	public synchronized LoggingConfig getConfig()
+	{
+		return config;
+	}
+
+	/**
+	 * Reads and applies the configuration file now.
+	 * @throws IOException if the file could not be read, or a driver could not be opened.
+	 * @throws IllegalArgumentException if a property value in the file is invalid.
+	 */
+	public synchronized void reload() throws IOException
+	{
+		LoggingConfig next = LoggingConfig.read(file, config);
+		factory.apply(next);
+		config = next;
+	}
+
+	/**
+	 * Stops watching the file.
+	 * The current configuration stays applied.
+	 */
+	@Override
+	public void close()
+	{
+		Utils.close(watchService);
+		try {
+			watchThread.join();
+		} catch (InterruptedException e) {
+			// Ignore.
+		}
+	}
+
+	/**
+	 * The thread that waits for file changes.
+	 */
+	private class WatchThread extends Thread
+	{
+		private WatchThread()
+		{
+			setName("LoggingConfigWatcher-" + file.getName());
+			setDaemon(true);
+		}
+
+		@Override
+		public void run()
+		{
+			Path name = file.toPath().getFileName();
+			while (true)
+			{
+				try {
+					if (!pollChanged(watchService.take(), name))
+						continue;
+					// Let writes to the file settle. Changes to other files in the directory (like logs) don't count.
+					long deadline = System.nanoTime() + MAX_SETTLE_TIME * 1000000L;
+					long settled = System.nanoTime() + SETTLE_TIME * 1000000L;
+					long wait;
+					while ((wait = Math.min(settled, deadline) - System.nanoTime()) > 0L)
+					{
+						WatchKey key = watchService.poll(wait, TimeUnit.NANOSECONDS);
+						if (key != null && pollChanged(key, name))
+							settled = System.nanoTime() + SETTLE_TIME * 1000000L;
+					}
+					reload();
+				} catch (ClosedWatchServiceException | InterruptedException e) {
+					break;
+				} catch (Throwable e) {
+					e.printStackTrace(System.err);
+				}
+			}
+		}
+
+		private boolean pollChanged(WatchKey key, Path name)
+		{
+			boolean out = false;
+			for (WatchEvent<?> event : key.pollEvents())
+				if (name.equals(event.context()))
+					out = true;
+			key.reset();
+			return out;
+		}
+	}
+
+}
@@ -27,4 +27,101 @@ public interface LoggingDriver
 	 */
 	public void log(Date time, LogLevel level, String source, String message, Throwable throwable);
 	
+	/**
+	 * Processes a structured logging message.
+	 * <p>By default, this appends the fields to the message as <code>name=value</code> pairs
+	 * and calls {@link #log(Date, LogLevel, String, String, Throwable)}. Drivers that can make use of the
+	 * typed fields directly should override this.</p>
+	 * @param time the time that this message was logged.
+	 * @param level the logging level.
+	 * @param source the source of the message.
+	 * @param message the message to object.
+	 * @param fields the message fields. Never null, but can be empty.
+	 * @param throwable the throwable to output along with the message.
+	 */
+	public default void log(Date time, LogLevel level, String source, String message, LogFields fields, Throwable throwable)
+	{
+		log(time, level, source, fields.isEmpty() ? message : fields.appendTo(new StringBuilder(message)).toString(), throwable);
+	}
+	
+	/**
+	 * Processes a structured logging message along with the diagnostic context it was logged in.
+	 * <p>By default, this appends the context to the message and calls
+	 * {@link #log(Date, LogLevel, String, String, LogFields, Throwable)}. Drivers that can make use of the
+	 * context entries directly should override this.</p>
+	 * @param time the time that this message was logged.
+	 * @param level the logging level.
+	 * @param source the source of the message.
+	 * @param message the message to object.
+	 * @param fields the message fields. Never null, but can be empty.
+	 * @param context the diagnostic context of the logging thread. Never null, but can be empty.
+	 * @param throwable the throwable to output along with the message.
+	 */
+	public default void log(Date time, LogLevel level, String source, String message, LogFields fields, LogContext context, Throwable throwable)
+	{
+		log(time, level, source, context.isEmpty() ? message : context.appendTo(new StringBuilder(message).append(' ')).toString(), fields, throwable);
+	}
+	
+	/**
+	 * Processes a structured logging message along with the diagnostic context it was logged in and where it came from.
+	 * <p>By default, this ignores the origin and calls {@link #log(Date, LogLevel, String, String, LogFields, LogContext, Throwable)}.</p>
+	 * @param time the time that this message was logged.
+	 * @param level the logging level.
+	 * @param source the source of the message.
+	 * @param message the message to object.
+	 * @param fields the message fields. Never null, but can be empty.
+	 * @param context the diagnostic context of the logging thread. Never null, but can be empty.
+	 * @param origin the producing thread and caller location, or null if no driver asked for either.
+	 * @param throwable the throwable to output along with the message.
+	 * @see #usesThreadInfo()
+	 * @see #usesCallerInfo()
+	 */
+	public default void log(Date time, LogLevel level, String source, String message, LogFields fields, LogContext context, LogOrigin origin, Throwable throwable)
+	{
+		log(time, level, source, message, fields, context, throwable);
+	}
+	
+	/**
+	 * Processes a structured logging message with a high-resolution timestamp.
+	 * This is the method called by {@link LoggingFactory} for each message.
+	 * <p>By default, this truncates the time to milliseconds, ignores the sequence number, and calls
+	 * {@link #log(Date, LogLevel, String, String, LogFields, LogContext, LogOrigin, Throwable)}.</p>
+	 * @param time the time that this message was logged, in nanoseconds since the epoch.
+	 * @param sequence the message's sequence number in its factory, which totally orders messages with the same time.
+	 *		Numbers can be skipped, for messages that were only kept by a flight recorder.
+	 * @param level the logging level.
+	 * @param source the source of the message.
+	 * @param message the message to object.
+	 * @param fields the message fields. Never null, but can be empty.
+	 * @param context the diagnostic context of the logging thread. Never null, but can be empty.
+	 * @param origin the producing thread and caller location, or null if no driver asked for either.
+	 * @param throwable the throwable to output along with the message.
+	 * @see LogClock
+	 */
+	public default void log(long time, long sequence, LogLevel level, String source, String message, LogFields fields, LogContext context, LogOrigin origin, Throwable throwable)
+	{
+		log(new Date(Math.floorDiv(time, 1000000L)), level, source, message, fields, context, origin, throwable);
+	}
+	
+	/**
+	 * Checks if this driver wants the producing thread's id and name in the message origin.
+	 * This is checked for each message logged, so changes take effect immediately.
+	 * @return true if so, false if not. Default is false.
+	 */
+	public default boolean usesThreadInfo()
+	{
+		return false;
+	}
+	
+	/**
+	 * Checks if this driver wants the caller location in the message origin.
+	 * Finding the caller is expensive, so this should only return true if the location is actually output.
+	 * This is checked for each message logged, so changes take effect immediately.
+	 * @return true if so, false if not. Default is false.
+	 */
+	public default boolean usesCallerInfo()
+	{
+		return false;
+	}
+	
 }
@@ -7,11 +7,19 @@
  ******************************************************************************/
 package com.blackrook.logging;
 
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.blackrook.logging.driver.ConsoleLogger;
+import com.blackrook.logging.util.Utils;
 
 /**
  * Some kind of logger for logging messages.
@@ -30,15 +38,24 @@ public class LoggingFactory
 		DEBUG;
 	}
 	
+	/** A builder that discards everything, for levels that are not loggable. */
+	private static final LogBuilder NO_OP_BUILDER = new NoOpBuilder();
+	
 	/** Out queue. */
 	private Queue<LogObject> outQueue;
 	
-	/** Stream to send logs out to. */
-	private Queue<LoggingDriver> drivers;
-	/** This logging factory's logging level. */
-	private LogLevel loggingLevel;
+	/** The current levels and drivers. Replaced, never modified, so each message sees one consistent set. */
+	private volatile Settings settings;
+	/** Mutex for replacing settings. */
+	private Object settingsMutex;
 	/** Logger thread. */
 	private LoggerThread loggerThread;
+	/** The clock for timestamping messages. */
+	private LogClock clock;
+	/** The sequence number of the next message. Only taken under outQueue for queued messages, so they stay in order. */
+	private AtomicLong nextSequence;
+	/** Reusable per-thread structured log builders. */
+	private ThreadLocal<FieldBuilder> threadBuilder;
 	
 	/**
 	 * Creates a new logging factory.
@@ -57,9 +74,19 @@ public class LoggingFactory
 	 */
 	public LoggingFactory(LogLevel level, LoggingDriver... drivers)
 	{
-		this.drivers = new LinkedList<LoggingDriver>();
 		this.outQueue = new LinkedList<LogObject>(); 
-		this.loggingLevel = level;
+		this.settings = new Settings(level, new LoggingDriver[0], Collections.<String, LogLevel>emptyMap(), null, new LogFilter[0], Collections.<String, LoggingDriver[]>emptyMap());
+		this.settingsMutex = new Object();
+		this.clock = LogClock.SYSTEM;
+		this.nextSequence = new AtomicLong(0L);
+		this.threadBuilder = new ThreadLocal<FieldBuilder>()
+		{
+			@Override
+			protected FieldBuilder initialValue()
+			{
+				return new FieldBuilder();
+			}
+		};
 
 		addDriver(drivers);
 	}
@@ -120,8 +147,13 @@ public class LoggingFactory
 	 */
 	public void addDriver(LoggingDriver... drivers)
 	{
-		for (LoggingDriver d : drivers)
-			this.drivers.add(d);
+		synchronized (settingsMutex)
+		{
+			List<LoggingDriver> list = new ArrayList<LoggingDriver>(Arrays.asList(settings.drivers));
+			for (LoggingDriver d : drivers)
+				list.add(d);
+			settings = settings.withDrivers(list.toArray(new LoggingDriver[list.size()]));
+		}
 	}
 	
 	/**
@@ -130,8 +162,13 @@ public class LoggingFactory
 	 */
 	public void removeDriver(LoggingDriver... drivers)
 	{
-		for (LoggingDriver d : drivers)
-			this.drivers.remove(d);
+		synchronized (settingsMutex)
+		{
+			List<LoggingDriver> list = new ArrayList<LoggingDriver>(Arrays.asList(settings.drivers));
+			for (LoggingDriver d : drivers)
+				list.remove(d);
+			settings = settings.withDrivers(list.toArray(new LoggingDriver[list.size()]));
+		}
 	}
 	
 	/**
@@ -143,7 +180,7 @@ public class LoggingFactory
 	 */
 	public LogLevel getLoggingLevel()
 	{
-		return loggingLevel;
+		return settings.level;
 	}
 	
 	/**
@@ -155,7 +192,207 @@ public class LoggingFactory
 	 */
 	public void setLoggingLevel(LogLevel level)
 	{
-		this.loggingLevel = level;
+		synchronized (settingsMutex)
+		{
+			settings = settings.withLevel(level);
+		}
+	}
+	
+	/**
+	 * Returns the logging level for a source name, if one was set.
+	 * @param source the source name, or a dotted prefix of source names.
+	 * @return the logging level set for the source, or null if none.
+	 * @see #setSourceLoggingLevel(String, LogLevel)
+	 */
+	public LogLevel getSourceLoggingLevel(String source)
+	{
+		return settings.sourceLevels.get(source);
+	}
+	
+	/**
+	 * Sets the logging level for a source name, overriding this factory's level for that source.
+	 * The name can also be a dotted prefix: a level for <code>com.example</code> applies to sources
+	 * named <code>com.example.Thing</code>, unless a longer name has its own level.
+	 * A level set on a {@link Logger} itself still takes precedence over this.
+	 * @param source the source name, or a dotted prefix of source names.
+	 * @param level the logging level, or null to remove the source's level.
+	 */
+	public void setSourceLoggingLevel(String source, LogLevel level)
+	{
+		synchronized (settingsMutex)
+		{
+			Map<String, LogLevel> map = new HashMap<String, LogLevel>(settings.sourceLevels);
+			if (level != null)
+				map.put(source, level);
+			else
+				map.remove(source);
+			settings = settings.withSourceLevels(Collections.unmodifiableMap(map));
+		}
+	}
+	
+	/**
+	 * Returns the flight recorder attached to this factory.
+	 * @return the flight recorder, or null if none.
+	 */
+	public FlightRecorder getFlightRecorder()
+	{
+		return settings.recorder;
+	}
+	
+	/**
+	 * Attaches a flight recorder to this factory, replacing the current one, if any.
+	 * The recorder sees every message logged through this factory at or above its record level,
+	 * even ones below the logging level.
+	 * @param recorder the recorder, or null to remove the current one.
+	 * @throws IllegalStateException if the recorder is already attached to a different factory.
+	 * @see FlightRecorder
+	 */
+	public void setFlightRecorder(FlightRecorder recorder)
+	{
+		synchronized (settingsMutex)
+		{
+			if (recorder != null)
+				recorder.attach(this);
+			if (settings.recorder != null && settings.recorder != recorder)
+				settings.recorder.attach(null);
+			settings = settings.withRecorder(recorder);
+		}
+	}
+	
+	/**
+	 * Returns the filters on this factory, in the order that they are evaluated.
+	 * @return a copy of the filters.
+	 */
+	public LogFilter[] getFilters()
+	{
+		return Arrays.copyOf(settings.filters, settings.filters.length);
+	}
+	
+	/**
+	 * Adds a filter or filters to this factory.
+	 * A message that passes the logging level is only written to drivers if every filter accepts it.
+	 * @param filters the filters to add.
+	 * @see LogFilter
+	 */
+	public void addFilter(LogFilter... filters)
+	{
+		synchronized (settingsMutex)
+		{
+			List<LogFilter> list = new ArrayList<LogFilter>(Arrays.asList(settings.filters));
+			for (LogFilter f : filters)
+				list.add(f);
+			settings = settings.withFilters(list.toArray(new LogFilter[list.size()]));
+		}
+	}
+	
+	/**
+	 * Removes a filter or filters from this factory.
+	 * @param filters the filters to remove.
+	 */
+	public void removeFilter(LogFilter... filters)
+	{
+		synchronized (settingsMutex)
+		{
+			List<LogFilter> list = new ArrayList<LogFilter>(Arrays.asList(settings.filters));
+			for (LogFilter f : filters)
+				list.remove(f);
+			settings = settings.withFilters(list.toArray(new LogFilter[list.size()]));
+		}
+	}
+	
+	/**
+	 * Returns the drivers that a source name is routed to, if a route was set.
+	 * @param source the source name, or a dotted prefix of source names.
+	 * @return a copy of the drivers routed to, or null if no route was set.
+	 * @see #setRoute(String, LoggingDriver...)
+	 */
+	public LoggingDriver[] getRoute(String source)
+	{
+		LoggingDriver[] out = settings.routes.get(source);
+		return out != null ? Arrays.copyOf(out, out.length) : null;
+	}
+	
+	/**
+	 * Routes messages from a source name to a set of drivers, instead of this factory's drivers.
+	 * The name can also be a dotted prefix: a route for <code>com.example</code> applies to sources
+	 * named <code>com.example.Thing</code>, unless a longer name has its own route.
+	 * Routing has no effect on logging levels or filters.
+	 * @param source the source name, or a dotted prefix of source names.
+	 * @param drivers the drivers to write to (none discards the source's messages), or null to remove the route.
+	 */
+	public void setRoute(String source, LoggingDriver... drivers)
+	{
+		synchronized (settingsMutex)
+		{
+			Map<String, LoggingDriver[]> map = new HashMap<String, LoggingDriver[]>(settings.routes);
+			if (drivers != null)
+				map.put(source, Arrays.copyOf(drivers, drivers.length));
+			else
+				map.remove(source);
+			settings = settings.withRoutes(Collections.unmodifiableMap(map));
+		}
+	}
+	
+	/**
+	 * Replaces this factory's logging level, source logging levels, and drivers with the ones in a configuration, all at once.
+	 * <p>Messages logged before this call are still written to the drivers that were current when they were logged,
+	 * and messages logged after go to the new drivers, so nothing is dropped or reordered.
+	 * Drivers that are not part of the new configuration are closed (if they are {@link AutoCloseable})
+	 * once all of the messages logged before this call have been written. Layout changes to drivers that are kept
+	 * take effect at the same point.</p>
+	 * <p>Filters and routes are kept. Drivers that are still routed to, or that are the flight recorder's target, are not closed.</p>
+	 * @param config the configuration to apply.
+	 * @see LoggingConfig
+	 * @see LoggingConfigWatcher
+	 */
+	public void apply(LoggingConfig config)
+	{
+		synchronized (settingsMutex)
+		{
+			Settings next = settings.withLevel(config.getLoggingLevel()).withDrivers(config.getDrivers()).withSourceLevels(config.getSourceLoggingLevels());
+			List<LoggingDriver> retired = new ArrayList<LoggingDriver>();
+			for (LoggingDriver d : settings.drivers)
+				if (!next.hasDriver(d))
+					retired.add(d);
+			
+			// Swapped under the queue lock, so every message queued after the marker sees the new drivers and layouts.
+			synchronized (outQueue)
+			{
+				settings = next;
+				if (!retired.isEmpty() || config.hasLayouts())
+				{
+					LogObject logobj = new LogObject(0L, null, null, null, null, null, null, null);
+					logobj.retired = retired.toArray(new LoggingDriver[retired.size()]);
+					logobj.config = config;
+					outQueue.add(logobj);
+					if (loggerThread == null || !loggerThread.isAlive())
+						(loggerThread = new LoggerThread()).start();
+					outQueue.notify();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the clock used for timestamping messages.
+	 * @return the current clock.
+	 */
+	public LogClock getClock()
+	{
+		return clock;
+	}
+	
+	/**
+	 * Sets the clock used for timestamping messages.
+	 * The default is {@link LogClock#SYSTEM}.
+	 * @param clock the new clock.
+	 * @throws NullPointerException if clock is null.
+	 */
+	public void setClock(LogClock clock)
+	{
+		if (clock == null)
+			throw new NullPointerException("clock cannot be null");
+		this.clock = clock;
 	}
 	
 	/**
@@ -196,17 +433,97 @@ public class LoggingFactory
 	 * Adds a log message to the logger queue.
 	 * @param level the target logging level.
 	 * @param source the source name.
-	 * @param message the message to output.
+	 * @param message the message object to output.
+	 * @param throwable the throwable to dump, if any.
+	 */
+	private void addLog(LogLevel level, LogLevel localLevel, String source, Object message, Throwable throwable)
+	{
+		addLog(level, localLevel, source, message, null, null, LogFields.EMPTY, throwable);
+	}
+	
+	/**
+	 * Adds a formatted log message to the logger queue.
+	 * @param level the target logging level.
+	 * @param source the source name.
+	 * @param formatString the formatting string to use to render the args.
+	 * @param args the additional parameters for the formatter.
+	 * @param throwable the throwable to dump, if any.
+	 */
+	private void addLogf(LogLevel level, LogLevel localLevel, String source, String formatString, Object[] args, Throwable throwable)
+	{
+		addLog(level, localLevel, source, null, formatString, args, LogFields.EMPTY, throwable);
+	}
+	
+	/**
+	 * Adds a structured log message to the logger queue.
+	 * The message is only rendered if it is logged. 
+	 * @param level the target logging level.
+	 * @param source the source name.
+	 * @param message the message object to output, if formatString is null.
+	 * @param formatString the formatting string to use to render the args, if any.
+	 * @param args the additional parameters for the formatter.
+	 * @param fields the message fields.
+	 * @param throwable the throwable to dump, if any.
+	 */
+	private void addLog(LogLevel level, LogLevel localLevel, String source, Object message, String formatString, Object[] args, LogFields fields, Throwable throwable)
+	{
+		Settings settings = this.settings;
+		boolean logged = checkLoggingLevel(settings, level, localLevel, source) && settings.acceptSource(level, source);
+		addLog(settings, logged, level, source, message, formatString, args, fields, throwable);
+	}
+	
+	/**
+	 * Adds a structured log message to the logger queue, after the level and source filters were checked.
+	 * @param settings the settings that the message was checked against.
+	 * @param logged if true, the message passed the logging level and source filters.
+	 * @param level the target logging level.
+	 * @param source the source name.
+	 * @param message the message object to output, if formatString is null.
+	 * @param formatString the formatting string to use to render the args, if any.
+	 * @param args the additional parameters for the formatter.
+	 * @param fields the message fields.
 	 * @param throwable the throwable to dump, if any.
 	 */
-	private void addLog(LogLevel level, LogLevel localLevel, String source, String message, Throwable throwable)
+	private void addLog(Settings settings, boolean logged, LogLevel level, String source, Object message, String formatString, Object[] args, LogFields fields, Throwable throwable)
 	{
-		if (!checkLoggingLevel(level, localLevel))
+		FlightRecorder recorder = settings.recorder;
+		boolean recorded = recorder != null && recorder.records(level);
+		if (!logged && !recorded)
+			return;
+		
+		long time = clock.epochNanos();
+		LogContext context = LogContext.current();
+		if (!logged)
+		{
+			// Formatting is left to the recorder, if it is ever dumped.
+			recorder.record(time, nextSequence.getAndIncrement(), level, source, message, formatString, args, fields, context, null, null, throwable);
 			return;
+		}
+		
+		String text = formatString != null ? String.format(formatString, args) : String.valueOf(message);
+		
+		boolean withThread = recorded && recorder.getTarget().usesThreadInfo();
+		boolean withCaller = recorded && recorder.getTarget().usesCallerInfo();
+		for (LoggingDriver d : settings.getDrivers(source))
+		{
+			withThread = withThread || d.usesThreadInfo();
+			withCaller = withCaller || d.usesCallerInfo();
+		}
 		
+		// Captured outside of the lock - the context is an immutable snapshot of this thread's state.
+		LogObject logobj = new LogObject(time, level, source, text, fields, context, LogOrigin.capture(withThread, withCaller), throwable);
 		synchronized (outQueue)
 		{
-			outQueue.add(new LogObject(new Date(), level, source, message, throwable));
+			Settings current = this.settings;
+			logobj.drivers = current.getDrivers(source);
+			logobj.filters = current.messageFilters;
+			logobj.sequence = nextSequence.getAndIncrement();
+			if (recorded)
+				recorder.record(time, logobj.sequence, level, source, text, null, null, fields, context, logobj.origin, logobj.drivers, throwable);
+			// The history leads up to the triggering message, so it goes first.
+			if (recorder != null && recorder.triggers(level))
+				addDump(recorder, recorder.drain());
+			outQueue.add(logobj);
 			if (loggerThread == null || !loggerThread.isAlive())
 				(loggerThread = new LoggerThread()).start();
 			outQueue.notify();
@@ -214,23 +531,67 @@ public class LoggingFactory
 		}
 	}
 	
+	/**
+	 * Adds a flight recorder's history to the logger queue, to be written to its target.
+	 * @param recorder the recorder.
+	 * @param entries the drained history.
+	 */
+	void addDump(FlightRecorder recorder, FlightRecorder.Entry[] entries)
+	{
+		if (entries.length == 0)
+			return;
+		
+		LogObject logobj = new LogObject(0L, null, null, null, null, null, null, null);
+		logobj.recorder = recorder;
+		logobj.dump = entries;
+		synchronized (outQueue)
+		{
+			outQueue.add(logobj);
+			if (loggerThread == null || !loggerThread.isAlive())
+				(loggerThread = new LoggerThread()).start();
+			outQueue.notify();
+		}
+	}
+	
+	/**
+	 * Gets a structured log builder for a log statement.
+	 * The calling thread's builder is reused unless it is already in use, in which case it is replaced.
+	 * @param level the level for the logged statement.
+	 * @param localLevel the local logger's log level to check against, if any.
+	 * @param source the source name.
+	 * @return a builder, or a builder that does nothing if the message would not be logged or recorded.
+	 */
+	private LogBuilder getBuilder(LogLevel level, LogLevel localLevel, String source)
+	{
+		Settings settings = this.settings;
+		boolean logged = checkLoggingLevel(settings, level, localLevel, source) && settings.acceptSource(level, source);
+		if (!logged && (settings.recorder == null || !settings.recorder.records(level)))
+			return NO_OP_BUILDER;
+		
+		FieldBuilder builder = threadBuilder.get();
+		// Either a field value was computed by something that also logs, or a builder was abandoned before logging.
+		// The holder keeps its own reference either way, so give the thread a fresh builder to reuse from now on.
+		if (builder.inUse)
+			threadBuilder.set(builder = new FieldBuilder());
+		builder.start(settings, logged, level, source);
+		return builder;
+	}
+	
 	/**
 	 * Checks if the logging level allows for a log statement to be logged.
-	 * If the localLevel is not provided, this uses the parent logger's level.
+	 * If the localLevel is not provided, this uses the source's level, or the parent logger's level.
+	 * @param settings the settings to check against.
 	 * @param level the level for the logged statement.
 	 * @param localLevel the local logger's log level to check against, if any.
+	 * @param source the source name.
 	 * @return true if the log entry passes, false if it doesn't.
 	 */
-	private boolean checkLoggingLevel(LogLevel level, LogLevel localLevel)
+	private static boolean checkLoggingLevel(Settings settings, LogLevel level, LogLevel localLevel, String source)
 	{
-		if (localLevel != null)
+		LogLevel checkLevel = localLevel != null ? localLevel : settings.getLevel(source);
+		if (checkLevel != null)
 		{
-			if (level.ordinal() > localLevel.ordinal())
-				return false;
-		}
-		else if (loggingLevel != null)
-		{
-			if (level.ordinal() > loggingLevel.ordinal())
+			if (level.ordinal() > checkLevel.ordinal())
 				return false;
 		}
 		
@@ -265,114 +626,516 @@ public class LoggingFactory
 			return localLevel;
 		}
 		
+		@Override
+		public LogBuilder atLevel(LogLevel level)
+		{
+			return getBuilder(level, localLevel, source);
+		}
+
+		@Override
+		public LogBuilder atFatal()
+		{
+			return getBuilder(LogLevel.FATAL, localLevel, source);
+		}
+
+		@Override
+		public LogBuilder atSevere()
+		{
+			return getBuilder(LogLevel.SEVERE, localLevel, source);
+		}
+
+		@Override
+		public LogBuilder atError()
+		{
+			return getBuilder(LogLevel.ERROR, localLevel, source);
+		}
+
+		@Override
+		public LogBuilder atWarning()
+		{
+			return getBuilder(LogLevel.WARNING, localLevel, source);
+		}
+
+		@Override
+		public LogBuilder atInfo()
+		{
+			return getBuilder(LogLevel.INFO, localLevel, source);
+		}
+
+		@Override
+		public LogBuilder atDebug()
+		{
+			return getBuilder(LogLevel.DEBUG, localLevel, source);
+		}
+
 		@Override
 		public void fatal(Object message)
 		{
-			addLog(LogLevel.FATAL, localLevel, source, String.valueOf(message), null);
+			addLog(LogLevel.FATAL, localLevel, source, message, null);
 		}
 
 		@Override
 		public void fatalf(String formatString, Object... args)
 		{
-			addLog(LogLevel.FATAL, localLevel, source, String.format(formatString, args), null);
+			addLogf(LogLevel.FATAL, localLevel, source, formatString, args, null);
 		}
 
 		@Override
 		public void fatal(Throwable t, Object message)
 		{
-			addLog(LogLevel.FATAL, localLevel, source, String.valueOf(message), t);
+			addLog(LogLevel.FATAL, localLevel, source, message, t);
 		}
 
 		@Override
 		public void fatalf(Throwable t, String formatString, Object... args)
 		{
-			addLog(LogLevel.FATAL, localLevel, source, String.format(formatString, args), t);
+			addLogf(LogLevel.FATAL, localLevel, source, formatString, args, t);
 		}
 
 		@Override
 		public void severe(Object message)
 		{
-			addLog(LogLevel.SEVERE, localLevel, source, String.valueOf(message), null);
+			addLog(LogLevel.SEVERE, localLevel, source, message, null);
 		}
 
 		@Override
 		public void severef(String formatString, Object... args)
 		{
-			addLog(LogLevel.SEVERE, localLevel, source, String.format(formatString, args), null);
+			addLogf(LogLevel.SEVERE, localLevel, source, formatString, args, null);
 		}
 
 		@Override
 		public void severe(Throwable t, Object message)
 		{
-			addLog(LogLevel.SEVERE, localLevel, source, String.valueOf(message), t);
+			addLog(LogLevel.SEVERE, localLevel, source, message, t);
 		}
 
 		@Override
 		public void severef(Throwable t, String formatString, Object... args)
 		{
-			addLog(LogLevel.SEVERE, localLevel, source, String.format(formatString, args), t);
+			addLogf(LogLevel.SEVERE, localLevel, source, formatString, args, t);
 		}
 
 		@Override
 		public void error(Object message)
 		{
-			addLog(LogLevel.ERROR, localLevel, source, String.valueOf(message), null);
+			addLog(LogLevel.ERROR, localLevel, source, message, null);
 		}
 
 		@Override
 		public void errorf(String formatString, Object... args)
 		{
-			addLog(LogLevel.ERROR, localLevel, source, String.format(formatString, args), null);
+			addLogf(LogLevel.ERROR, localLevel, source, formatString, args, null);
 		}
 
 		@Override
 		public void error(Throwable t, Object message)
 		{
-			addLog(LogLevel.ERROR, localLevel, source, String.valueOf(message), t);
+			addLog(LogLevel.ERROR, localLevel, source, message, t);
 		}
 
 		@Override
 		public void errorf(Throwable t, String formatString, Object... args)
 		{
-			addLog(LogLevel.ERROR, localLevel, source, String.format(formatString, args), t);
+			addLogf(LogLevel.ERROR, localLevel, source, formatString, args, t);
 		}
 
 		@Override
 		public void warn(Object message)
 		{
-			addLog(LogLevel.WARNING, localLevel, source, String.valueOf(message), null);
+			addLog(LogLevel.WARNING, localLevel, source, message, null);
 		}
 
 		@Override
 		public void warnf(String formatString, Object... args)
 		{
-			addLog(LogLevel.WARNING, localLevel, source, String.format(formatString, args), null);
+			addLogf(LogLevel.WARNING, localLevel, source, formatString, args, null);
 		}
 
 		@Override
 		public void info(Object message)
 		{
-			addLog(LogLevel.INFO, localLevel, source, String.valueOf(message), null);
+			addLog(LogLevel.INFO, localLevel, source, message, null);
 		}
 
 		@Override
 		public void infof(String formatString, Object... args)
 		{
-			addLog(LogLevel.INFO, localLevel, source, String.format(formatString, args), null);
+			addLogf(LogLevel.INFO, localLevel, source, formatString, args, null);
 		}
 
 		@Override
 		public void debug(Object message)
 		{
-			addLog(LogLevel.DEBUG, localLevel, source, String.valueOf(message), null);
+			addLog(LogLevel.DEBUG, localLevel, source, message, null);
 		}
 
 		@Override
 		public void debugf(String formatString, Object... args)
 		{
-			addLog(LogLevel.DEBUG, localLevel, source, String.format(formatString, args), null);
+			addLogf(LogLevel.DEBUG, localLevel, source, formatString, args, null);
+		}
+
+	}
+	
+	/**
+	 * Structured log builder.
+	 * One is kept per thread and reused, so that only the final field set is allocated per message.
+	 */
+	private class FieldBuilder implements LogBuilder
+	{
+		/** Initial field capacity. */
+		private static final int INITIAL_CAPACITY = 8;
+
+		/** If true, this builder is between start and log. */
+		private boolean inUse;
+		/** The settings that the message was checked against. */
+		private Settings settings;
+		/** If true, the message passed the logging level and source filters. */
+		private boolean logged;
+		/** The message level. */
+		private LogLevel level;
+		/** The source of the message. */
+		private String source;
+		/** The throwable to output. */
+		private Throwable throwable;
+
+		private String[] names;
+		private LogFields.Type[] types;
+		private long[] primitives;
+		private Object[] objects;
+		private boolean hasObjects;
+		private int size;
+
+		private FieldBuilder()
+		{
+			this.inUse = false;
+			this.names = new String[INITIAL_CAPACITY];
+			this.types = new LogFields.Type[INITIAL_CAPACITY];
+			this.primitives = new long[INITIAL_CAPACITY];
+			this.objects = new Object[INITIAL_CAPACITY];
+			this.hasObjects = false;
+			this.size = 0;
+		}
+
+		private void start(Settings settings, boolean logged, LogLevel level, String source)
+		{
+			this.inUse = true;
+			this.settings = settings;
+			this.logged = logged;
+			this.level = level;
+			this.source = source;
+		}
+
+		private int next(String name, LogFields.Type type)
+		{
+			if (size == names.length)
+			{
+				int capacity = size * 2;
+				names = Arrays.copyOf(names, capacity);
+				types = Arrays.copyOf(types, capacity);
+				primitives = Arrays.copyOf(primitives, capacity);
+				objects = Arrays.copyOf(objects, capacity);
+			}
+			names[size] = name;
+			types[size] = type;
+			return size++;
+		}
+
+		@Override
+		public boolean isEnabled()
+		{
+			return true;
+		}
+
+		@Override
+		public LogBuilder with(String name, Object value)
+		{
+			objects[next(name, LogFields.Type.OBJECT)] = value;
+			hasObjects = true;
+			return this;
+		}
+
+		@Override
+		public LogBuilder with(String name, long value)
+		{
+			primitives[next(name, LogFields.Type.LONG)] = value;
+			return this;
+		}
+
+		@Override
+		public LogBuilder with(String name, double value)
+		{
+			primitives[next(name, LogFields.Type.DOUBLE)] = Double.doubleToRawLongBits(value);
+			return this;
+		}
+
+		@Override
+		public LogBuilder with(String name, boolean value)
+		{
+			primitives[next(name, LogFields.Type.BOOLEAN)] = value ? 1L : 0L;
+			return this;
+		}
+
+		@Override
+		public LogBuilder with(Throwable t)
+		{
+			throwable = t;
+			return this;
+		}
+
+		@Override
+		public void log(Object message)
+		{
+			finish(message, null, null);
+		}
+
+		@Override
+		public void logf(String formatString, Object... args)
+		{
+			finish(null, formatString, args);
 		}
 
+		private void finish(Object message, String formatString, Object[] args)
+		{
+			Settings settings = this.settings;
+			boolean logged = this.logged;
+			LogLevel level = this.level;
+			String source = this.source;
+			Throwable throwable = this.throwable;
+			LogFields fields = size == 0 ? LogFields.EMPTY : new LogFields(
+				Arrays.copyOf(names, size),
+				Arrays.copyOf(types, size),
+				Arrays.copyOf(primitives, size),
+				hasObjects ? Arrays.copyOf(objects, size) : null,
+				size
+			);
+			
+			// Release references so that nothing is retained by the thread between messages.
+			if (hasObjects)
+				Arrays.fill(objects, 0, size, null);
+			Arrays.fill(names, 0, size, null);
+			this.hasObjects = false;
+			this.size = 0;
+			this.throwable = null;
+			this.source = null;
+			this.settings = null;
+			this.inUse = false;
+			
+			addLog(settings, logged, level, source, message, formatString, args, fields, throwable);
+		}
+	}
+	
+	/**
+	 * Structured log builder that discards everything.
+	 */
+	private static class NoOpBuilder implements LogBuilder
+	{
+		@Override
+		public boolean isEnabled()
+		{
+			return false;
+		}
+
+		@Override
+		public LogBuilder with(String name, Object value)
+		{
+			return this;
+		}
+
+		@Override
+		public LogBuilder with(String name, long value)
+		{
+			return this;
+		}
+
+		@Override
+		public LogBuilder with(String name, double value)
+		{
+			return this;
+		}
+
+		@Override
+		public LogBuilder with(String name, boolean value)
+		{
+			return this;
+		}
+
+		@Override
+		public LogBuilder with(Throwable t)
+		{
+			return this;
+		}
+
+		@Override
+		public void log(Object message)
+		{
+			// Do nothing.
+		}
+
+		@Override
+		public void logf(String formatString, Object... args)
+		{
+			// Do nothing.
+		}
+	}
+	
+	/**
+	 * A snapshot of the levels and drivers.
+	 */
+	private static class Settings
+	{
+		/** The factory logging level. */
+		private final LogLevel level;
+		/** The drivers. */
+		private final LoggingDriver[] drivers;
+		/** Source logging levels. */
+		private final Map<String, LogLevel> sourceLevels;
+		/** Resolved source logging levels. */
+		private final Map<String, LogLevel> resolvedLevels;
+		/** The flight recorder, if any. */
+		private final FlightRecorder recorder;
+		/** All filters, in the order added. */
+		private final LogFilter[] filters;
+		/** Filters with a source phase. */
+		private final LogFilter[] sourceFilters;
+		/** Filters with a message phase, or null if none. */
+		private final LogFilter[] messageFilters;
+		/** Drivers for source prefixes. */
+		private final Map<String, LoggingDriver[]> routes;
+		/** Resolved drivers for sources. */
+		private final Map<String, LoggingDriver[]> resolvedRoutes;
+
+		private Settings(LogLevel level, LoggingDriver[] drivers, Map<String, LogLevel> sourceLevels, FlightRecorder recorder, LogFilter[] filters, Map<String, LoggingDriver[]> routes)
+		{
+			this.level = level;
+			this.drivers = drivers;
+			this.sourceLevels = sourceLevels;
+			this.recorder = recorder;
+			this.resolvedLevels = sourceLevels.isEmpty() ? null : new ConcurrentHashMap<String, LogLevel>();
+			this.filters = filters;
+			
+			List<LogFilter> sourceList = new ArrayList<LogFilter>(filters.length);
+			List<LogFilter> messageList = new ArrayList<LogFilter>(filters.length);
+			for (LogFilter f : filters)
+			{
+				if (f.isSourcePhase())
+					sourceList.add(f);
+				if (f.isMessagePhase())
+					messageList.add(f);
+			}
+			this.sourceFilters = sourceList.toArray(new LogFilter[sourceList.size()]);
+			this.messageFilters = messageList.isEmpty() ? null : messageList.toArray(new LogFilter[messageList.size()]);
+			
+			this.routes = routes;
+			this.resolvedRoutes = routes.isEmpty() ? null : new ConcurrentHashMap<String, LoggingDriver[]>();
+		}
+
+		private Settings withLevel(LogLevel level)
+		{
+			return new Settings(level, drivers, sourceLevels, recorder, filters, routes);
+		}
+
+		private Settings withDrivers(LoggingDriver[] drivers)
+		{
+			return new Settings(level, drivers, sourceLevels, recorder, filters, routes);
+		}
+
+		private Settings withSourceLevels(Map<String, LogLevel> sourceLevels)
+		{
+			return new Settings(level, drivers, sourceLevels, recorder, filters, routes);
+		}
+
+		private Settings withRecorder(FlightRecorder recorder)
+		{
+			return new Settings(level, drivers, sourceLevels, recorder, filters, routes);
+		}
+
+		private Settings withFilters(LogFilter[] filters)
+		{
+			return new Settings(level, drivers, sourceLevels, recorder, filters, routes);
+		}
+
+		private Settings withRoutes(Map<String, LoggingDriver[]> routes)
+		{
+			return new Settings(level, drivers, sourceLevels, recorder, filters, routes);
+		}
+
+		private boolean hasDriver(LoggingDriver driver)
+		{
+			for (LoggingDriver d : drivers)
+				if (d == driver)
+					return true;
+			for (LoggingDriver[] route : routes.values())
+				for (LoggingDriver d : route)
+					if (d == driver)
+						return true;
+			return recorder != null && recorder.getTarget() == driver;
+		}
+
+		/**
+		 * Gets the level for a source: the level for the source's name or longest dotted prefix, or the factory level.
+		 */
+		private LogLevel getLevel(String source)
+		{
+			if (resolvedLevels == null || source == null)
+				return level;
+			
+			LogLevel out;
+			if ((out = resolvedLevels.get(source)) != null)
+				return out;
+			
+			String name = source;
+			while ((out = sourceLevels.get(name)) == null)
+			{
+				int dot = name.lastIndexOf('.');
+				if (dot < 0)
+					break;
+				name = name.substring(0, dot);
+			}
+			if (out == null)
+				out = level;
+			if (out != null)
+				resolvedLevels.put(source, out);
+			return out;
+		}
+
+		/**
+		 * Gets the drivers for a source: the route for the source's name or longest dotted prefix, or the factory drivers.
+		 */
+		private LoggingDriver[] getDrivers(String source)
+		{
+			if (resolvedRoutes == null || source == null)
+				return drivers;
+			
+			LoggingDriver[] out;
+			if ((out = resolvedRoutes.get(source)) != null)
+				return out;
+			
+			String name = source;
+			while ((out = routes.get(name)) == null)
+			{
+				int dot = name.lastIndexOf('.');
+				if (dot < 0)
+					break;
+				name = name.substring(0, dot);
+			}
+			if (out == null)
+				out = drivers;
+			resolvedRoutes.put(source, out);
+			return out;
+		}
+
+		/**
+		 * Evaluates the source phase of the filters.
+		 */
+		private boolean acceptSource(LogLevel level, String source)
+		{
+			for (LogFilter f : sourceFilters)
+				if (!f.testSource(level, source))
+					return false;
+			return true;
+		}
 	}
 	
 	/**
@@ -380,18 +1143,31 @@ public class LoggingFactory
 	 */
 	private static class LogObject
 	{
-		Date time;
+		LoggingDriver[] drivers;
+		LogFilter[] filters;
+		LoggingDriver[] retired;
+		LoggingConfig config;
+		FlightRecorder recorder;
+		FlightRecorder.Entry[] dump;
+		long time;
+		long sequence;
 		LogLevel level;
 		String source;
 		String message;
+		LogFields fields;
+		LogContext context;
+		LogOrigin origin;
 		Throwable throwable;
 		
-		private LogObject(Date time, LogLevel level, String source, String message, Throwable throwable)
+		private LogObject(long time, LogLevel level, String source, String message, LogFields fields, LogContext context, LogOrigin origin, Throwable throwable)
 		{
 			this.time = time;
 			this.level = level;
 			this.source = source;
 			this.message = message;
+			this.fields = fields;
+			this.context = context;
+			this.origin = origin;
 			this.throwable = throwable;
 		}
 	}
@@ -403,7 +1179,7 @@ public class LoggingFactory
 	{
 		private LoggerThread()
 		{
-			setName("LoggerThread-"+drivers.getClass().getSimpleName());
+			setName("LoggerThread-"+LoggingFactory.this.getClass().getSimpleName());
 			setDaemon(false);
 		}
 		
@@ -424,14 +1200,44 @@ public class LoggingFactory
 						logobj = outQueue.poll();
 					}
 					
-					for (LoggingDriver d : drivers)
-						d.log(logobj.time, logobj.level, logobj.source, logobj.message, logobj.throwable);
+					if (logobj.dump != null)
+					{
+						logobj.recorder.write(logobj.dump);
+						continue;
+					}
+					
+					if (logobj.retired != null)
+					{
+						for (LoggingDriver d : logobj.retired)
+							if (d instanceof AutoCloseable)
+								Utils.close((AutoCloseable)d);
+						if (logobj.config != null)
+							logobj.config.applyLayouts();
+						continue;
+					}
+					
+					if (logobj.filters != null && !acceptMessage(logobj))
+						continue;
+					
+					for (LoggingDriver d : logobj.drivers)
+						d.log(logobj.time, logobj.sequence, logobj.level, logobj.source, logobj.message, logobj.fields, logobj.context, logobj.origin, logobj.throwable);
 					
 				} catch (Throwable e) {
 					e.printStackTrace(System.err);
 				}
 			}
 		}
+		
+		/**
+		 * Evaluates the message phase of the filters.
+		 */
+		private boolean acceptMessage(LogObject logobj)
+		{
+			for (LogFilter f : logobj.filters)
+				if (!f.testMessage(logobj.level, logobj.source, logobj.message, logobj.fields, logobj.context))
+					return false;
+			return true;
+		}
 	}
 	
 }
@@ -7,13 +7,15 @@
  ******************************************************************************/
 package com.blackrook.logging.driver;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.Date;
 
-import com.blackrook.logging.LoggingDriver;
+import com.blackrook.logging.LogContext;
+import com.blackrook.logging.LogFields;
+import com.blackrook.logging.LogOrigin;
 import com.blackrook.logging.LoggingFactory.LogLevel;
 import com.blackrook.logging.util.Utils;
 
@@ -21,7 +23,7 @@ import com.blackrook.logging.util.Utils;
  * A logging driver that writes to a text file.
  * @author Matthew Tropiano
  */
-public class FileLogger implements LoggingDriver
+public class FileLogger extends LayoutLogger implements Closeable
 {
 	/** Mutex for set and write. */
 	private Object MUTEX;
@@ -36,18 +38,45 @@ public class FileLogger implements LoggingDriver
 	 * @throws IOException if the file could not be opened.
 	 */
 	public FileLogger(File logFile) throws IOException
+	{
+		this(logFile, false);
+	}
+	
+	/**
+	 * Creates a new file logger the writes to a specific file.
+	 * @param logFile the file to write to.
+	 * @param append if true, add to the end of the file instead of replacing its contents.
+	 * @throws IOException if the file could not be opened.
+	 */
+	public FileLogger(File logFile, boolean append) throws IOException
 	{
 		MUTEX = new Object();
-		setFile(logFile);
+		if (append)
+			setFile(logFile, true);
+		else
+			setFile(logFile);
 	}
 	
 	/**
-	 * Sets the log file to a new file.
+	 * Sets the log file to a new file, replacing its contents.
 	 * The previous file is closed.
+	 * The constructors call this to open the first file, unless appending to it.
 	 * @param logFile the file to write to.
 	 * @throws IOException if the file could not be opened.
 	 */
 	protected void setFile(File logFile) throws IOException
+	{
+		setFile(logFile, false);
+	}
+	
+	/**
+	 * Sets the log file to a new file.
+	 * The previous file is closed.
+	 * @param logFile the file to write to.
+	 * @param append if true, add to the end of the file instead of replacing its contents.
+	 * @throws IOException if the file could not be opened.
+	 */
+	protected void setFile(File logFile, boolean append) throws IOException
 	{
 		synchronized (MUTEX)
 		{
@@ -60,7 +89,7 @@ public class FileLogger implements LoggingDriver
 			}
 			
 			file = logFile;
-			writer = new PrintWriter(new FileOutputStream(file), true);
+			writer = new PrintWriter(new FileOutputStream(file, append), true);
 		}
 	}
 	
@@ -75,17 +104,35 @@ public class FileLogger implements LoggingDriver
 		// Does nothing by default.
 	}
 	
+	/**
+	 * Closes the current file.
+	 * Anything logged to this driver afterward is ignored.
+	 * @throws IOException if the file could not be closed cleanly.
+	 * @see #closeFile(File)
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		synchronized (MUTEX)
+		{
+			if (file == null)
+				return;
+			Utils.close(writer);
+			File closed = file;
+			writer = null;
+			file = null;
+			closeFile(closed);
+		}
+	}
+	
 	@Override
-	public void log(Date time, LogLevel level, String source, String message, Throwable throwable)
+	public void log(long time, long sequence, LogLevel level, String source, String message, LogFields fields, LogContext context, LogOrigin origin, Throwable throwable)
 	{
-		if (writer == null)
-			return;
-		
 		synchronized (MUTEX)
 		{
-			writer.println(String.format("[%tF %tT.%tL] (%s) %s: %s", time, time, time, source, level.name(), message));
-			if (throwable != null)
-				throwable.printStackTrace(writer);
+			if (writer == null)
+				return;
+			writer.println(format(time, sequence, level, source, message, fields, context, origin, throwable));
 		}
 	}
 
@@ -0,0 +1,528 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging.driver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.blackrook.logging.LogContext;
+import com.blackrook.logging.LogFields;
+import com.blackrook.logging.LogOrigin;
+import com.blackrook.logging.LoggingFactory.LogLevel;
+import com.blackrook.logging.util.Utils;
+
+/**
+ * A logging driver that writes to a gzip-compressed text file.
+ * <p>Lines are collected into blocks, and each block is written as its own complete gzip member.
+ * A file of concatenated members is a valid gzip file to standard tools, but each block can also be
+ * decompressed on its own, so a crash only loses the block in progress, and readers can seek to
+ * or decompress blocks in parallel. Lines never span blocks.</p>
+ * <p>A block is written when it reaches the block size, or when its oldest line is older than the flush interval.
+ * Bigger blocks compress better; shorter intervals lose less on a crash. Compression happens either on the thread
+ * that calls the driver (the logging factory's logger thread, never the producers), or on a dedicated compressor thread.
+ * Without the compressor thread, a small timer thread writes out blocks that go stale while nothing is being logged.</p>
+ * <p>Those threads do not keep the program running, so a shutdown hook closes the driver, writing out the block in
+ * progress, if it is still open when the program exits normally.</p>
+ * <p>Each member is assembled in memory and written in one call. If a write fails, that block is dropped,
+ * rather than retried after a partial member.</p>
+ * @author Matthew Tropiano
+ */
+public class GZipFileLogger extends LayoutLogger implements Closeable
+{
+	/** Default block size in uncompressed bytes. */
+	public static final int DEFAULT_BLOCK_SIZE = 65536;
+	/** Default flush interval in milliseconds. */
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000L;
+
+	/** The line separator. */
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+	/** Gzip member header: magic, deflate, no flags, no time, no extra flags, unknown OS. */
+	private static final byte[] GZIP_HEADER = {(byte)0x1f, (byte)0x8b, 8, 0, 0, 0, 0, 0, 0, (byte)0xff};
+
+	/** Mutex for the current block. */
+	private Object MUTEX;
+	/** The output stream to the file. */
+	private OutputStream out;
+	/** The file written to. */
+	private File file;
+	/** The text encoding. */
+	private Charset charset;
+
+	/** Block size in bytes. */
+	private int blockSize;
+	/** Flush interval in nanoseconds. */
+	private long flushIntervalNanos;
+
+	/** Current block. */
+	private byte[] block;
+	/** Current block length. */
+	private int blockLength;
+	/** Time that the first line was added to the current block (System.nanoTime()). */
+	private long blockStartNanos;
+
+	/** Block compressor. */
+	private BlockCompressor compressor;
+	/** Compressor thread, if any. */
+	private CompressorThread compressorThread;
+	/** Stale block timer, if there is no compressor thread. */
+	private FlushThread flushThread;
+	/** Closes this driver on exit, until closed some other way. */
+	private ShutdownHook shutdownHook;
+
+	/**
+	 * Creates a new gzip file logger with the default block size and flush interval,
+	 * that compresses on the logging thread.
+	 * @param logFile the file to write to.
+	 * @throws IOException if the file could not be opened.
+	 */
+	public GZipFileLogger(File logFile) throws IOException
+	{
+		this(logFile, DEFAULT_BLOCK_SIZE, DEFAULT_FLUSH_INTERVAL, false);
+	}
+
+	/**
+	 * Creates a new gzip file logger.
+	 * @param logFile the file to write to.
+	 * @param blockSize the size of each block in uncompressed bytes.
+	 * @param flushIntervalMillis the maximum amount of milliseconds that a line can wait in a block before the block is written.
+	 * @param compressorThread if true, compress and write blocks on a dedicated thread instead of the logging thread.
+	 * @throws IOException if the file could not be opened.
+	 * @throws IllegalArgumentException if blockSize or flushIntervalMillis is less than 1.
+	 */
+	public GZipFileLogger(File logFile, int blockSize, long flushIntervalMillis, boolean compressorThread) throws IOException
+	{
+		this(logFile, blockSize, flushIntervalMillis, compressorThread, false);
+	}
+
+	/**
+	 * Creates a new gzip file logger.
+	 * Since each block is a complete gzip member, appending to an existing gzip file keeps it valid.
+	 * @param logFile the file to write to.
+	 * @param blockSize the size of each block in uncompressed bytes.
+	 * @param flushIntervalMillis the maximum amount of milliseconds that a line can wait in a block before the block is written.
+	 * @param compressorThread if true, compress and write blocks on a dedicated thread instead of the logging thread.
+	 * @param append if true, add to the end of the file instead of replacing its contents.
+	 * @throws IOException if the file could not be opened.
+	 * @throws IllegalArgumentException if blockSize or flushIntervalMillis is less than 1.
+	 */
+	public GZipFileLogger(File logFile, int blockSize, long flushIntervalMillis, boolean compressorThread, boolean append) throws IOException
+	{
+		if (blockSize < 1)
+			throw new IllegalArgumentException("blockSize must be 1 or greater.");
+		if (flushIntervalMillis < 1)
+			throw new IllegalArgumentException("flushIntervalMillis must be 1 or greater.");
+
+		this.MUTEX = new Object();
+		this.file = logFile;
+		this.out = new FileOutputStream(logFile, append);
+		this.charset = StandardCharsets.UTF_8;
+		this.blockSize = blockSize;
+		this.flushIntervalNanos = flushIntervalMillis * 1000000L;
+		this.block = new byte[blockSize];
+		this.blockLength = 0;
+		this.blockStartNanos = 0L;
+		this.compressor = new BlockCompressor();
+		if (compressorThread)
+			(this.compressorThread = new CompressorThread()).start();
+		else
+			(this.flushThread = new FlushThread()).start();
+		Runtime.getRuntime().addShutdownHook(this.shutdownHook = new ShutdownHook());
+	}
+
+	/**
+	 * @return the file written to.
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	@Override
+	public void log(long time, long sequence, LogLevel level, String source, String message, LogFields fields, LogContext context, LogOrigin origin, Throwable throwable)
+	{
+		StringBuilder sb = format(time, sequence, level, source, message, fields, context, origin, throwable);
+		byte[] line = sb.toString().getBytes(charset);
+
+		synchronized (MUTEX)
+		{
+			if (out == null)
+				return;
+
+			int needed = line.length + LINE_SEPARATOR.length;
+			if (blockLength > 0 && blockLength + needed > blockSize)
+				sealBlock();
+			if (blockLength == 0)
+				blockStartNanos = System.nanoTime();
+			if (blockLength + needed > block.length)
+				block = Arrays.copyOf(block, blockLength + needed);
+			System.arraycopy(line, 0, block, blockLength, line.length);
+			System.arraycopy(LINE_SEPARATOR, 0, block, blockLength + line.length, LINE_SEPARATOR.length);
+			blockLength += needed;
+
+			if (blockLength >= blockSize || System.nanoTime() - blockStartNanos >= flushIntervalNanos)
+				sealBlock();
+		}
+	}
+
+	/**
+	 * Writes out the current block, even if it is not full.
+	 * If a compressor thread is used, this waits until the block is written.
+	 */
+	public void flush()
+	{
+		synchronized (MUTEX)
+		{
+			if (out == null)
+				return;
+			if (blockLength > 0)
+				sealBlock();
+		}
+		// Not waited on while holding the mutex - the compressor thread may need it.
+		if (compressorThread != null)
+			compressorThread.waitUntilIdle();
+	}
+
+	/**
+	 * Writes out the current block and closes the file.
+	 * If a compressor thread is used, it is stopped.
+	 * Anything logged to this driver afterward is ignored.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if (shutdownHook != null && Thread.currentThread() != shutdownHook)
+		{
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				// Already exiting - the hook waits for this close to finish, then does nothing.
+			}
+		}
+		shutdownHook = null;
+		flush();
+		if (compressorThread != null)
+			compressorThread.shutdown();
+		if (flushThread != null)
+			flushThread.shutdown();
+		synchronized (MUTEX)
+		{
+			if (out == null)
+				return;
+			// Anything logged since the flush is written here.
+			compressorThread = null;
+			if (blockLength > 0)
+				sealBlock();
+			compressor.end();
+			Utils.close(out);
+			out = null;
+		}
+	}
+
+	/**
+	 * Seals the current block and hands it off for compression.
+	 * Must be called with MUTEX held.
+	 */
+	private void sealBlock()
+	{
+		if (compressorThread != null)
+		{
+			compressorThread.add(block, blockLength);
+			block = compressorThread.takeFreeBlock(blockSize);
+			blockLength = 0;
+		}
+		else
+		{
+			try {
+				compressor.writeMember(out, block, blockLength);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				// Dropped on failure - retrying would append a second copy after whatever made it out.
+				blockLength = 0;
+			}
+		}
+	}
+
+	/**
+	 * Seals the current block if its oldest line has waited past the flush interval.
+	 */
+	private void sealIfStale()
+	{
+		synchronized (MUTEX)
+		{
+			if (out != null && blockLength > 0 && System.nanoTime() - blockStartNanos >= flushIntervalNanos)
+				sealBlock();
+		}
+	}
+
+	/**
+	 * @return the time to wait between stale block checks, in milliseconds.
+	 */
+	private long staleCheckMillis()
+	{
+		return Math.max(1L, flushIntervalNanos / 1000000L / 2L);
+	}
+
+	/**
+	 * Writes blocks as independent gzip members, reusing one deflater and member buffer.
+	 */
+	private static class BlockCompressor
+	{
+		private Deflater deflater;
+		private CRC32 crc;
+		private byte[] member;
+		private int memberLength;
+
+		private BlockCompressor()
+		{
+			this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			this.crc = new CRC32();
+			this.member = new byte[8192];
+			this.memberLength = 0;
+		}
+
+		private void writeMember(OutputStream out, byte[] data, int length) throws IOException
+		{
+			deflater.reset();
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			crc.reset();
+			crc.update(data, 0, length);
+
+			memberLength = 0;
+			System.arraycopy(GZIP_HEADER, 0, member, 0, GZIP_HEADER.length);
+			memberLength += GZIP_HEADER.length;
+			while (!deflater.finished())
+			{
+				if (memberLength == member.length)
+					member = Arrays.copyOf(member, member.length * 2);
+				memberLength += deflater.deflate(member, memberLength, member.length - memberLength);
+			}
+			if (memberLength + 8 > member.length)
+				member = Arrays.copyOf(member, memberLength + 8);
+			putIntLE((int)crc.getValue());
+			putIntLE(length);
+
+			out.write(member, 0, memberLength);
+			out.flush();
+		}
+
+		private void putIntLE(int value)
+		{
+			member[memberLength++] = (byte)(value & 0x0ff);
+			member[memberLength++] = (byte)((value >>> 8) & 0x0ff);
+			member[memberLength++] = (byte)((value >>> 16) & 0x0ff);
+			member[memberLength++] = (byte)((value >>> 24) & 0x0ff);
+		}
+
+		private void end()
+		{
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Compresses and writes sealed blocks, and seals blocks that have waited past the flush interval.
+	 */
+	private class CompressorThread extends Thread
+	{
+		/** Sealed blocks waiting to be written. */
+		private Queue<byte[]> blocks;
+		/** Lengths of the sealed blocks. */
+		private Queue<Integer> lengths;
+		/** Written blocks, for reuse. */
+		private Queue<byte[]> freeBlocks;
+		/** If true, a block is being written. */
+		private boolean busy;
+		/** If false, finish up and end. */
+		private boolean running;
+
+		private CompressorThread()
+		{
+			setName("GZipFileLogger-" + file.getName());
+			setDaemon(true);
+			this.blocks = new LinkedList<byte[]>();
+			this.lengths = new LinkedList<Integer>();
+			this.freeBlocks = new LinkedList<byte[]>();
+			this.busy = false;
+			this.running = true;
+		}
+
+		private void add(byte[] block, int length)
+		{
+			synchronized (blocks)
+			{
+				blocks.add(block);
+				lengths.add(length);
+				blocks.notifyAll();
+			}
+		}
+
+		private byte[] takeFreeBlock(int size)
+		{
+			synchronized (blocks)
+			{
+				byte[] out;
+				while ((out = freeBlocks.poll()) != null)
+					if (out.length >= size)
+						return out;
+			}
+			return new byte[size];
+		}
+
+		private void waitUntilIdle()
+		{
+			synchronized (blocks)
+			{
+				while (busy || !blocks.isEmpty())
+				{
+					try {
+						blocks.wait(100L);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}
+
+		private void shutdown()
+		{
+			synchronized (blocks)
+			{
+				running = false;
+				blocks.notifyAll();
+			}
+			try {
+				join();
+			} catch (InterruptedException e) {
+				// Ignore.
+			}
+		}
+
+		@Override
+		public void run()
+		{
+			long waitMillis = staleCheckMillis();
+			while (true)
+			{
+				byte[] data;
+				int length;
+				synchronized (blocks)
+				{
+					if (blocks.isEmpty() && running)
+					{
+						try {
+							blocks.wait(waitMillis);
+						} catch (InterruptedException e) {
+							// Ignore.
+						}
+					}
+					if (blocks.isEmpty() && !running)
+						break;
+					data = blocks.poll();
+					length = data != null ? lengths.poll() : 0;
+					busy = data != null;
+				}
+
+				if (data == null)
+				{
+					sealIfStale();
+					continue;
+				}
+
+				try {
+					compressor.writeMember(out, data, length);
+				} catch (Throwable e) {
+					e.printStackTrace(System.err);
+				}
+
+				synchronized (blocks)
+				{
+					busy = false;
+					freeBlocks.add(data);
+					blocks.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes out blocks that have waited past the flush interval, when there is no compressor thread.
+	 */
+	private class FlushThread extends Thread
+	{
+		/** If false, end. */
+		private volatile boolean running;
+
+		private FlushThread()
+		{
+			setName("GZipFileLogger-Flush-" + file.getName());
+			setDaemon(true);
+			this.running = true;
+		}
+
+		private void shutdown()
+		{
+			running = false;
+			interrupt();
+			try {
+				join();
+			} catch (InterruptedException e) {
+				// Ignore.
+			}
+		}
+
+		@Override
+		public void run()
+		{
+			long waitMillis = staleCheckMillis();
+			while (running)
+			{
+				try {
+					Thread.sleep(waitMillis);
+				} catch (InterruptedException e) {
+					continue;
+				}
+				try {
+					sealIfStale();
+				} catch (Throwable e) {
+					e.printStackTrace(System.err);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes the driver when the program exits.
+	 */
+	private class ShutdownHook extends Thread
+	{
+		private ShutdownHook()
+		{
+			setName("GZipFileLogger-Shutdown-" + file.getName());
+		}
+
+		@Override
+		public void run()
+		{
+			close();
+		}
+	}
+
+}
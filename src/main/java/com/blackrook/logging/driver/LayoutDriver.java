@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging.driver;
+
+import com.blackrook.logging.LoggingDriver;
+
+/**
+ * A logging driver that formats messages with a changeable {@link LogLayout}.
+ * Drivers created from a configuration that implement this get their layout from its layout options.
+ * @author Matthew Tropiano
+ * @see LayoutLogger
+ */
+public interface LayoutDriver extends LoggingDriver
+{
+	/**
+	 * @return the layout used for each message.
+	 */
+	LogLayout getLayout();
+
+	/**
+	 * Sets the layout used for each message.
+	 * This can be called while messages are being logged.
+	 * @param layout the new layout.
+	 */
+	void setLayout(LogLayout layout);
+
+}
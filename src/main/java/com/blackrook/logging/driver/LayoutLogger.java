@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging.driver;
+
+import java.util.Date;
+
+import com.blackrook.logging.LogContext;
+import com.blackrook.logging.LogFields;
+import com.blackrook.logging.LogOrigin;
+import com.blackrook.logging.LoggingFactory.LogLevel;
+
+/**
+ * A base for text-based logging drivers that format each message with a {@link LogLayout}.
+ * <p>The {@link Date}-based calls are forwarded to {@link #log(long, long, LogLevel, String, String, LogFields, LogContext, LogOrigin, Throwable)}
+ * without a sequence number, and the layout decides what thread and caller info is captured.</p>
+ * @author Matthew Tropiano
+ */
+public abstract class LayoutLogger implements LayoutDriver
+{
+	/** The layout for each message. */
+	private volatile LogLayout layout;
+
+	/**
+	 * Creates a new driver with the default layout.
+	 */
+	protected LayoutLogger()
+	{
+		this.layout = new LogLayout();
+	}
+
+	@Override
+	public LogLayout getLayout()
+	{
+		return layout;
+	}
+
+	@Override
+	public void setLayout(LogLayout layout)
+	{
+		this.layout = layout;
+	}
+
+	@Override
+	public boolean usesThreadInfo()
+	{
+		return layout.usesThreadInfo();
+	}
+
+	@Override
+	public boolean usesCallerInfo()
+	{
+		return layout.usesCallerInfo();
+	}
+
+	@Override
+	public void log(Date time, LogLevel level, String source, String message, Throwable throwable)
+	{
+		log(time.getTime() * 1000000L, -1L, level, source, message, LogFields.EMPTY, LogContext.EMPTY, null, throwable);
+	}
+
+	@Override
+	public void log(Date time, LogLevel level, String source, String message, LogFields fields, LogContext context, LogOrigin origin, Throwable throwable)
+	{
+		log(time.getTime() * 1000000L, -1L, level, source, message, fields, context, origin, throwable);
+	}
+
+	@Override
+	public abstract void log(long time, long sequence, LogLevel level, String source, String message, LogFields fields, LogContext context, LogOrigin origin, Throwable throwable);
+
+	/**
+	 * Formats a message with the current layout, followed by the throwable's stack trace, if any.
+	 * The result has no line terminator.
+	 * @param time the time that this message was logged, in nanoseconds since the epoch.
+	 * @param sequence the message sequence number, or a negative number if it has none.
+	 * @param level the logging level.
+	 * @param source the source of the message.
+	 * @param message the message.
+	 * @param fields the message fields.
+	 * @param context the diagnostic context.
+	 * @param origin the message origin, if any.
+	 * @param throwable the throwable, if any.
+	 * @return a new builder with the formatted message.
+	 */
+	protected StringBuilder format(long time, long sequence, LogLevel level, String source, String message, LogFields fields, LogContext context, LogOrigin origin, Throwable throwable)
+	{
+		LogLayout layout = this.layout;
+		StringBuilder sb = layout.format(new StringBuilder(), time, sequence, level, source, message, fields, context, origin);
+		if (throwable != null)
+			layout.appendThrowable(sb, throwable);
+		return sb;
+	}
+
+}
@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging.driver;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Formatter;
+
+import com.blackrook.logging.LogContext;
+import com.blackrook.logging.LogFields;
+import com.blackrook.logging.LogOrigin;
+import com.blackrook.logging.LoggingFactory.LogLevel;
+
+/**
+ * The single-line text layout used by the text-based logging drivers.
+ * <p>Lines look like: <code>[date time] #sequence [thread] (source) LEVEL caller: message {context} field=value ...</code>,
+ * where the sequence, thread and caller parts are optional and off by default. The time is output to the millisecond
+ * by default, and can be output to the nanosecond.
+ * Drivers report the optional parts to the logging factory so that it only captures what is output.</p>
+ * @author Matthew Tropiano
+ */
+public class LogLayout
+{
+	/** Powers of ten, for fractional seconds. */
+	private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L};
+
+	/** Digits of fractional seconds to output. */
+	private int secondFractionDigits;
+	/** If true, output the message sequence number. */
+	private boolean showSequence;
+	/** If true, output the producing thread. */
+	private boolean showThread;
+	/** If true, output the caller location. */
+	private boolean showCaller;
+
+	/**
+	 * Creates a new layout without thread or caller info.
+	 */
+	public LogLayout()
+	{
+		this(false, false);
+	}
+
+	/**
+	 * Creates a new layout.
+	 * @param showThread if true, output the producing thread's name.
+	 * @param showCaller if true, output the caller location.
+	 */
+	public LogLayout(boolean showThread, boolean showCaller)
+	{
+		this.secondFractionDigits = 3;
+		this.showSequence = false;
+		this.showThread = showThread;
+		this.showCaller = showCaller;
+	}
+
+	/**
+	 * @return the amount of digits of fractional seconds output in the timestamp.
+	 */
+	public int getSecondFractionDigits()
+	{
+		return secondFractionDigits;
+	}
+
+	/**
+	 * Sets the amount of digits of fractional seconds output in the timestamp.
+	 * For example, 3 is milliseconds (the default), 6 is microseconds, and 9 is nanoseconds.
+	 * @param secondFractionDigits the amount of digits, from 0 to 9.
+	 * @throws IllegalArgumentException if the amount is out of range.
+	 */
+	public void setSecondFractionDigits(int secondFractionDigits)
+	{
+		if (secondFractionDigits < 0 || secondFractionDigits > 9)
+			throw new IllegalArgumentException("Digits must be from 0 to 9.");
+		this.secondFractionDigits = secondFractionDigits;
+	}
+
+	/**
+	 * @return true if the message sequence number is output, false if not.
+	 */
+	public boolean isShowSequence()
+	{
+		return showSequence;
+	}
+
+	/**
+	 * Sets if the message sequence number is output.
+	 * @param showSequence true to output it, false to not.
+	 */
+	public void setShowSequence(boolean showSequence)
+	{
+		this.showSequence = showSequence;
+	}
+
+	/**
+	 * @return true if the producing thread's name is output, false if not.
+	 */
+	public boolean isShowThread()
+	{
+		return showThread;
+	}
+
+	/**
+	 * Sets if the producing thread's name is output.
+	 * @param showThread true to output it, false to not.
+	 */
+	public void setShowThread(boolean showThread)
+	{
+		this.showThread = showThread;
+	}
+
+	/**
+	 * @return true if the caller location is output, false if not.
+	 */
+	public boolean isShowCaller()
+	{
+		return showCaller;
+	}
+
+	/**
+	 * Sets if the caller location is output.
+	 * @param showCaller true to output it, false to not.
+	 */
+	public void setShowCaller(boolean showCaller)
+	{
+		this.showCaller = showCaller;
+	}
+
+	/**
+	 * @return true if this layout references thread info.
+	 * @see com.blackrook.logging.LoggingDriver#usesThreadInfo()
+	 */
+	public boolean usesThreadInfo()
+	{
+		return showThread;
+	}
+
+	/**
+	 * @return true if this layout references caller info.
+	 * @see com.blackrook.logging.LoggingDriver#usesCallerInfo()
+	 */
+	public boolean usesCallerInfo()
+	{
+		return showCaller;
+	}
+
+	/**
+	 * Formats a log line (without the throwable or line terminator).
+	 * @param sb the target builder.
+	 * @param time the time that this message was logged, in nanoseconds since the epoch.
+	 * @param sequence the message sequence number, or a negative number if it has none (it is then not output).
+	 * @param level the logging level.
+	 * @param source the source of the message.
+	 * @param message the message.
+	 * @param fields the message fields.
+	 * @param context the diagnostic context.
+	 * @param origin the message origin, if any.
+	 * @return the builder passed in.
+	 */
+	public StringBuilder format(StringBuilder sb, long time, long sequence, LogLevel level, String source, String message, LogFields fields, LogContext context, LogOrigin origin)
+	{
+		long millis = Math.floorDiv(time, 1000000L);
+		new Formatter(sb).format("[%tF %tT", millis, millis);
+		if (secondFractionDigits > 0)
+		{
+			long fraction = Math.floorMod(time, 1000000000L) / POWERS_OF_TEN[9 - secondFractionDigits];
+			sb.append('.');
+			for (long p = POWERS_OF_TEN[secondFractionDigits - 1]; p > 1L && fraction < p; p /= 10L)
+				sb.append('0');
+			sb.append(fraction);
+		}
+		sb.append("] ");
+		if (showSequence && sequence >= 0L)
+			sb.append('#').append(sequence).append(' ');
+		if (showThread && origin != null && origin.hasThreadInfo())
+			sb.append('[').append(origin.getThreadName()).append("] ");
+		sb.append('(').append(source).append(") ").append(level.name());
+		if (showCaller && origin != null && origin.hasCallerInfo())
+			origin.appendCallerTo(sb.append(' '));
+		sb.append(": ").append(message);
+		if (!context.isEmpty())
+			context.appendTo(sb.append(' '));
+		return fields.appendTo(sb);
+	}
+
+	/**
+	 * Appends a throwable's stack trace to a formatted line, on the lines after it.
+	 * Nothing is appended after the last line of the trace.
+	 * @param sb the target builder.
+	 * @param throwable the throwable.
+	 * @return the builder passed in.
+	 */
+	public StringBuilder appendThrowable(StringBuilder sb, Throwable throwable)
+	{
+		String separator = System.lineSeparator();
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter(sw);
+		throwable.printStackTrace(pw);
+		pw.flush();
+		StringBuffer trace = sw.getBuffer();
+		int end = trace.length();
+		if (end >= separator.length() && trace.lastIndexOf(separator) == end - separator.length())
+			end -= separator.length();
+		return sb.append(separator).append(trace, 0, end);
+	}
+
+}
@@ -8,19 +8,17 @@
 package com.blackrook.logging.driver;
 
 import java.io.PrintStream;
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.util.Date;
 
-import com.blackrook.logging.LoggingDriver;
+import com.blackrook.logging.LogContext;
+import com.blackrook.logging.LogFields;
+import com.blackrook.logging.LogOrigin;
 import com.blackrook.logging.LoggingFactory.LogLevel;
-import com.blackrook.logging.util.Utils;
 
 /**
  * A standard logger for outputting to a print stream.
  * @author Matthew Tropiano
  */
-public class PrintStreamLogger implements LoggingDriver
+public class PrintStreamLogger extends LayoutLogger
 {
 	/** The print stream to output to. */
 	private PrintStream out;
@@ -35,22 +33,12 @@ public class PrintStreamLogger implements LoggingDriver
 	}
 	
 	@Override
-	public void log(Date time, LogLevel level, String source, String message, Throwable throwable)
+	public void log(long time, long sequence, LogLevel level, String source, String message, LogFields fields, LogContext context, LogOrigin origin, Throwable throwable)
 	{
 		if (out == null)
 			return;
 		
-		out.println(String.format("[%tF %tT.%tL] (%s) %s: %s", time, time, time, source, level.name(), message));
-		if (throwable != null)
-		{
-			StringWriter sw = new StringWriter();
-			PrintWriter pw = new PrintWriter(sw);
-			throwable.printStackTrace(pw);
-			pw.flush();
-			pw.close();
-			Utils.close(sw);
-			out.println(sw);
-		}
+		out.println(format(time, sequence, level, source, message, fields, context, origin, throwable));
 	}
 
 }
@@ -0,0 +1,549 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging.driver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import com.blackrook.logging.LogContext;
+import com.blackrook.logging.LogFields;
+import com.blackrook.logging.LogOrigin;
+import com.blackrook.logging.LoggingFactory.LogLevel;
+import com.blackrook.logging.util.Utils;
+
+/**
+ * A logging driver that sends each line as a record to a network socket, such as a local collector agent.
+ * <p>Records are encoded on the calling thread and put in a bounded outbound buffer. A dedicated sender thread
+ * connects, writes records in batches over a non-blocking channel, and reconnects with exponential backoff
+ * if the connection fails, so the logging factory's thread never waits on the network. If the buffer is full,
+ * records are dropped according to the {@link OverflowPolicy}.</p>
+ * <p>Records that were not completely written when a TCP connection failed are sent again after reconnecting.
+ * In UDP mode, each record is one datagram, and records too big for a datagram are dropped.</p>
+ * @author Matthew Tropiano
+ */
+public class SocketLogger extends LayoutLogger implements Closeable
+{
+	/** Default outbound buffer size in bytes. */
+	public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+	/** Default initial reconnect delay in milliseconds. */
+	public static final long DEFAULT_RECONNECT_DELAY = 100L;
+	/** Default maximum reconnect delay in milliseconds. */
+	public static final long DEFAULT_MAX_RECONNECT_DELAY = 30000L;
+	/** Default TCP connection timeout in milliseconds. */
+	public static final long DEFAULT_CONNECT_TIMEOUT = 2000L;
+
+	/** Maximum bytes written per batch. */
+	private static final int BATCH_SIZE = 64 * 1024;
+	/** Maximum UDP payload. */
+	private static final int MAX_DATAGRAM_SIZE = 65507;
+	/** Time to spend sending what remains on close, in milliseconds. */
+	private static final long CLOSE_TIMEOUT = 5000L;
+
+	/** Transport protocols. */
+	public static enum Protocol
+	{
+		/** Stream records over a TCP connection. */
+		TCP,
+		/** Send each record as a UDP datagram. */
+		UDP;
+	}
+
+	/** Record framing. */
+	public static enum Framing
+	{
+		/**
+		 * Each record is followed by a newline.
+		 * Records with line breaks in them (for instance, stack traces) will look like several records to a line-based reader.
+		 */
+		NEWLINE,
+		/** Each record is preceded by its length in bytes, as a 4-byte big-endian integer. */
+		LENGTH_PREFIXED;
+	}
+
+	/** What to do with a new record if the outbound buffer is full. */
+	public static enum OverflowPolicy
+	{
+		/** Drop the new record. */
+		DROP_NEWEST,
+		/** Drop the oldest buffered records until the new record fits. */
+		DROP_OLDEST;
+	}
+
+	/** The target address. */
+	private InetSocketAddress address;
+	/** The transport protocol. */
+	private Protocol protocol;
+	/** The record framing. */
+	private Framing framing;
+	/** The outbound buffer size in bytes. */
+	private int bufferSize;
+	/** The overflow policy. */
+	private OverflowPolicy overflowPolicy;
+	/** Initial reconnect delay in milliseconds. */
+	private long reconnectDelay;
+	/** Maximum reconnect delay in milliseconds. */
+	private long maxReconnectDelay;
+	/** TCP connection timeout in milliseconds. */
+	private long connectTimeout;
+
+	/** Encoded records waiting to be sent. Also the mutex for the buffer state. */
+	private Deque<byte[]> pending;
+	/** Total bytes in pending. */
+	private int pendingBytes;
+	/** Amount of records dropped. */
+	private long droppedCount;
+	/** If false, this driver is closed. */
+	private boolean running;
+	/** When to give up sending after close (System.currentTimeMillis()), set on close. */
+	private volatile long closeDeadline;
+	/** The sender thread. */
+	private SenderThread senderThread;
+
+	/**
+	 * Creates a new socket logger that streams newline-terminated records over TCP,
+	 * with the default buffer size, dropping the oldest records on overflow.
+	 * @param host the target host name.
+	 * @param port the target port.
+	 */
+	public SocketLogger(String host, int port)
+	{
+		this(new InetSocketAddress(host, port), Protocol.TCP, Framing.NEWLINE, DEFAULT_BUFFER_SIZE, OverflowPolicy.DROP_OLDEST);
+	}
+
+	/**
+	 * Creates a new socket logger.
+	 * The sender thread is started immediately.
+	 * @param address the target address.
+	 * @param protocol the transport protocol.
+	 * @param framing the record framing.
+	 * @param bufferSize the maximum amount of bytes to buffer while records wait to be sent.
+	 * @param overflowPolicy what to do with new records when the buffer is full.
+	 * @throws IllegalArgumentException if bufferSize is less than 1.
+	 */
+	public SocketLogger(InetSocketAddress address, Protocol protocol, Framing framing, int bufferSize, OverflowPolicy overflowPolicy)
+	{
+		if (bufferSize < 1)
+			throw new IllegalArgumentException("bufferSize must be 1 or greater.");
+
+		this.address = address;
+		this.protocol = protocol;
+		this.framing = framing;
+		this.bufferSize = bufferSize;
+		this.overflowPolicy = overflowPolicy;
+		this.reconnectDelay = DEFAULT_RECONNECT_DELAY;
+		this.maxReconnectDelay = DEFAULT_MAX_RECONNECT_DELAY;
+		this.connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+		this.closeDeadline = Long.MAX_VALUE;
+		this.pending = new ArrayDeque<byte[]>();
+		this.pendingBytes = 0;
+		this.droppedCount = 0L;
+		this.running = true;
+		(this.senderThread = new SenderThread()).start();
+	}
+
+	/**
+	 * Sets the reconnect backoff. After each failed connection, the delay before the next attempt
+	 * doubles, up to the maximum. A successful connection resets the delay.
+	 * @param initialMillis the delay after the first failure, in milliseconds.
+	 * @param maxMillis the maximum delay, in milliseconds.
+	 * @throws IllegalArgumentException if initialMillis is less than 1 or maxMillis is less than initialMillis.
+	 */
+	public void setReconnectDelay(long initialMillis, long maxMillis)
+	{
+		if (initialMillis < 1 || maxMillis < initialMillis)
+			throw new IllegalArgumentException("Delays must be 1 or greater, and the maximum must be at least the initial delay.");
+		synchronized (pending)
+		{
+			this.reconnectDelay = initialMillis;
+			this.maxReconnectDelay = maxMillis;
+		}
+	}
+
+	/**
+	 * Sets how long a TCP connection attempt can take before it counts as failed.
+	 * Records wait in the buffer meanwhile, and a failed attempt is followed by the reconnect backoff.
+	 * @param millis the timeout, in milliseconds.
+	 * @throws IllegalArgumentException if millis is less than 1.
+	 */
+	public void setConnectTimeout(long millis)
+	{
+		if (millis < 1)
+			throw new IllegalArgumentException("Timeout must be 1 or greater.");
+		synchronized (pending)
+		{
+			this.connectTimeout = millis;
+		}
+	}
+
+	/**
+	 * @return the amount of records dropped so far, either from overflow or from being too big to send.
+	 */
+	public long getDroppedCount()
+	{
+		synchronized (pending)
+		{
+			return droppedCount;
+		}
+	}
+
+	@Override
+	public void log(long time, long sequence, LogLevel level, String source, String message, LogFields fields, LogContext context, LogOrigin origin, Throwable throwable)
+	{
+		StringBuilder sb = format(time, sequence, level, source, message, fields, context, origin, throwable);
+		enqueue(encode(sb.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Stops the sender thread and closes the connection.
+	 * Buffered records are sent first if connected, waiting a short while at most.
+	 * Anything logged to this driver afterward is ignored.
+	 */
+	@Override
+	public void close()
+	{
+		synchronized (pending)
+		{
+			if (!running)
+				return;
+			running = false;
+			closeDeadline = System.currentTimeMillis() + CLOSE_TIMEOUT;
+			pending.notifyAll();
+		}
+		try {
+			senderThread.join(CLOSE_TIMEOUT + 1000L);
+		} catch (InterruptedException e) {
+			// Ignore.
+		}
+	}
+
+	private byte[] encode(byte[] data)
+	{
+		byte[] out;
+		switch (framing)
+		{
+			default:
+			case NEWLINE:
+				out = Arrays.copyOf(data, data.length + 1);
+				out[data.length] = '\n';
+				return out;
+			case LENGTH_PREFIXED:
+				out = new byte[data.length + 4];
+				out[0] = (byte)(data.length >>> 24);
+				out[1] = (byte)(data.length >>> 16);
+				out[2] = (byte)(data.length >>> 8);
+				out[3] = (byte)data.length;
+				System.arraycopy(data, 0, out, 4, data.length);
+				return out;
+		}
+	}
+
+	private void enqueue(byte[] record)
+	{
+		synchronized (pending)
+		{
+			if (!running)
+				return;
+
+			if (record.length > bufferSize || (protocol == Protocol.UDP && record.length > MAX_DATAGRAM_SIZE))
+			{
+				droppedCount++;
+				return;
+			}
+
+			if (pendingBytes + record.length > bufferSize)
+			{
+				if (overflowPolicy == OverflowPolicy.DROP_NEWEST)
+				{
+					droppedCount++;
+					return;
+				}
+				while (pendingBytes + record.length > bufferSize)
+				{
+					pendingBytes -= pending.pollFirst().length;
+					droppedCount++;
+				}
+			}
+
+			pending.addLast(record);
+			pendingBytes += record.length;
+			pending.notifyAll();
+		}
+	}
+
+	/**
+	 * The thread that connects and writes records.
+	 */
+	private class SenderThread extends Thread
+	{
+		/** The channel, if connected or connecting. */
+		private SelectableChannel channel;
+		/** The selector for the channel. */
+		private Selector selector;
+		/** The current batch of records. */
+		private List<byte[]> batch;
+		/** The current batch's buffer. */
+		private ByteBuffer batchBuffer;
+		/** The current reconnect delay. */
+		private long currentDelay;
+		/** When the next connection attempt can happen (System.currentTimeMillis()). */
+		private long nextAttempt;
+
+		private SenderThread()
+		{
+			setName("SocketLogger-" + protocol.name() + "-" + address);
+			setDaemon(true);
+			this.batch = new ArrayList<byte[]>();
+			this.batchBuffer = ByteBuffer.allocateDirect(BATCH_SIZE + 4);
+			this.currentDelay = 0L;
+			this.nextAttempt = 0L;
+		}
+
+		@Override
+		public void run()
+		{
+			try {
+				selector = Selector.open();
+				while (true)
+				{
+					boolean closing;
+					synchronized (pending)
+					{
+						closing = !running;
+						if (pending.isEmpty() && batch.isEmpty())
+						{
+							if (closing)
+								break;
+							pending.wait(1000L);
+							continue;
+						}
+					}
+
+					if (closing && (channel == null || System.currentTimeMillis() >= closeDeadline))
+						break;
+
+					if (channel == null && !connect())
+						continue;
+
+					try {
+						send();
+					} catch (IOException e) {
+						disconnect(true);
+					}
+				}
+			} catch (InterruptedException e) {
+				// End.
+			} catch (Throwable e) {
+				e.printStackTrace(System.err);
+			} finally {
+				disconnect(false);
+				Utils.close(selector);
+			}
+		}
+
+		/**
+		 * Attempts a connection, if the backoff allows it.
+		 * @return true if connected, false if not (yet).
+		 */
+		private boolean connect() throws InterruptedException
+		{
+			long wait = nextAttempt - System.currentTimeMillis();
+			if (wait > 0)
+			{
+				synchronized (pending)
+				{
+					if (running)
+						pending.wait(wait);
+				}
+				return false;
+			}
+
+			try {
+				if (protocol == Protocol.UDP)
+				{
+					DatagramChannel dc = DatagramChannel.open();
+					channel = dc;
+					dc.configureBlocking(false);
+					dc.connect(address);
+				}
+				else
+				{
+					SocketChannel sc = SocketChannel.open();
+					channel = sc;
+					sc.configureBlocking(false);
+					if (!sc.connect(address))
+					{
+						SelectionKey key = sc.register(selector, SelectionKey.OP_CONNECT);
+						long deadline;
+						synchronized (pending)
+						{
+							deadline = Math.min(System.currentTimeMillis() + connectTimeout, closeDeadline);
+						}
+						while (!sc.finishConnect())
+						{
+							long remaining = deadline - System.currentTimeMillis();
+							if (remaining <= 0)
+								throw new IOException("Connection timed out.");
+							selector.select(remaining);
+							selector.selectedKeys().clear();
+						}
+						key.cancel();
+						selector.selectNow();
+					}
+				}
+				currentDelay = 0L;
+				return true;
+			} catch (IOException e) {
+				disconnect(true);
+				return false;
+			}
+		}
+
+		/**
+		 * Closes the channel, and schedules the next connection attempt.
+		 * Records in the current batch that were not fully written are put back.
+		 */
+		private void disconnect(boolean backoff)
+		{
+			if (channel != null)
+			{
+				Utils.close(channel);
+				channel = null;
+				try {
+					selector.selectNow();
+				} catch (IOException e) {
+					// Ignore.
+				}
+			}
+			requeueBatch();
+			if (backoff)
+			{
+				synchronized (pending)
+				{
+					currentDelay = currentDelay == 0L ? reconnectDelay : Math.min(currentDelay * 2L, maxReconnectDelay);
+				}
+				nextAttempt = System.currentTimeMillis() + currentDelay;
+			}
+		}
+
+		private void requeueBatch()
+		{
+			if (batch.isEmpty())
+				return;
+			int written = batchBuffer.position();
+			int offset = 0;
+			int first = 0;
+			while (first < batch.size() && offset + batch.get(first).length <= written)
+				offset += batch.get(first++).length;
+			synchronized (pending)
+			{
+				for (int i = batch.size() - 1; i >= first; i--)
+				{
+					byte[] record = batch.get(i);
+					pending.addFirst(record);
+					pendingBytes += record.length;
+				}
+			}
+			batch.clear();
+			batchBuffer.clear();
+		}
+
+		/**
+		 * Fills a batch, if there isn't one, and writes as much as possible.
+		 */
+		private void send() throws IOException
+		{
+			if (batch.isEmpty())
+			{
+				batchBuffer.clear();
+				synchronized (pending)
+				{
+					byte[] record;
+					while ((record = pending.peekFirst()) != null)
+					{
+						if (!batch.isEmpty() && (protocol == Protocol.UDP || batchBuffer.position() + record.length > BATCH_SIZE))
+							break;
+						pending.pollFirst();
+						pendingBytes -= record.length;
+						batch.add(record);
+						if (record.length > batchBuffer.remaining())
+							batchBuffer = grow(batchBuffer, record.length);
+						batchBuffer.put(record);
+					}
+				}
+				batchBuffer.flip();
+			}
+
+			// Position is kept as "bytes written" for requeueing.
+			if (protocol == Protocol.UDP)
+				writeDatagram();
+			else
+				writeStream();
+		}
+
+		private void writeStream() throws IOException
+		{
+			SocketChannel sc = (SocketChannel)channel;
+			while (batchBuffer.hasRemaining())
+			{
+				if (sc.write(batchBuffer) == 0)
+					waitForWrite();
+			}
+			batch.clear();
+		}
+
+		private void writeDatagram() throws IOException
+		{
+			DatagramChannel dc = (DatagramChannel)channel;
+			try {
+				while (dc.write(batchBuffer) == 0)
+					waitForWrite();
+			} catch (PortUnreachableException e) {
+				// Nobody listening - the datagram is lost, as it would be without a connected socket.
+				synchronized (pending)
+				{
+					droppedCount++;
+				}
+			}
+			batch.clear();
+		}
+
+		private void waitForWrite() throws IOException
+		{
+			if (System.currentTimeMillis() >= closeDeadline)
+				throw new IOException("Timed out sending on close.");
+			SelectionKey key = channel.register(selector, SelectionKey.OP_WRITE);
+			if (selector.select(1000L) == 0 && !key.isValid())
+				throw new IOException("Channel closed.");
+			selector.selectedKeys().clear();
+			key.interestOps(0);
+		}
+
+		private ByteBuffer grow(ByteBuffer buffer, int needed)
+		{
+			ByteBuffer out = ByteBuffer.allocateDirect(buffer.position() + needed);
+			buffer.flip();
+			out.put(buffer);
+			return out;
+		}
+	}
+
+}
@@ -0,0 +1,27 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging;
+
+import com.blackrook.logging.driver.SocketLoggerTest;
+
+/**
+ * Runs every test program in turn. Any failed check ends it with an exception.
+ * @author Matthew Tropiano
+ */
+public final class AllTests
+{
+	public static void main(String[] args) throws Exception
+	{
+		SocketLoggerTest.main(args);
+		LoggingConfigTest.main(args);
+		FlightRecorderTest.main(args);
+		LogFilterTest.main(args);
+		System.out.println("All tests passed.");
+	}
+
+}
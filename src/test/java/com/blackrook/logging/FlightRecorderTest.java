@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import com.blackrook.logging.LoggingFactory.LogLevel;
+
+/**
+ * Tests {@link FlightRecorder} attached to a factory, with drivers that collect what they are sent.
+ * Run as a program: any failed check ends it with an exception.
+ * @author Matthew Tropiano
+ */
+public final class FlightRecorderTest
+{
+	/** Maximum time to wait for expected messages, in milliseconds. */
+	private static final int TIMEOUT = 5000;
+
+	public static void main(String[] args) throws Exception
+	{
+		testHistoryBeforeTrigger();
+		testNotWrittenTwice();
+		testConcurrentRecording();
+		System.out.println("All FlightRecorder tests passed.");
+	}
+
+	/**
+	 * Messages below the logging level are kept, up to the capacity, and written in order before the triggering message.
+	 * The triggering message is recorded too, so a target that is not one of the factory's drivers gets it last.
+	 */
+	private static void testHistoryBeforeTrigger() throws Exception
+	{
+		Collector target = new Collector();
+		LoggingFactory factory = new LoggingFactory(LogLevel.ERROR, new Collector());
+		FlightRecorder recorder = new FlightRecorder(3, LogLevel.ERROR, target);
+		factory.setFlightRecorder(recorder);
+
+		Logger logger = factory.getLogger("test");
+		for (int i = 0; i < 5; i++)
+			logger.debugf("detail-%d", i);
+		check(recorder.size() == 3, "history: expected 3 recorded messages, got " + recorder.size());
+		logger.error("failed");
+
+		List<String> messages = target.awaitQuiet(3);
+		check(messages.size() == 3, "history: expected 3 messages, got " + messages);
+		check(messages.get(0).equals("detail-3"), "history: oldest kept message should be detail-3, got " + messages.get(0));
+		check(messages.get(1).equals("detail-4"), "history: expected detail-4, got " + messages.get(1));
+		check(messages.get(2).equals("failed"), "history: triggering message should be last, got " + messages.get(2));
+		check(target.descents() == 0, "history: sequence numbers out of order");
+		check(recorder.size() == 0, "history: not cleared after writing");
+		System.out.println("PASS history before trigger");
+	}
+
+	/**
+	 * Messages that the target already got, because it is also one of the factory's drivers, are not written again.
+	 */
+	private static void testNotWrittenTwice() throws Exception
+	{
+		Collector target = new Collector();
+		LoggingFactory factory = new LoggingFactory(LogLevel.INFO, target);
+		FlightRecorder recorder = new FlightRecorder(10, LogLevel.ERROR, target);
+		factory.setFlightRecorder(recorder);
+
+		Logger logger = factory.getLogger("test");
+		logger.info("info-0");
+		logger.debug("debug-0");
+		logger.info("info-1");
+		logger.error("failed");
+
+		List<String> messages = target.awaitQuiet(4);
+		check(messages.size() == 4, "not written twice: expected 4 messages, got " + messages);
+		check(messages.indexOf("debug-0") < messages.indexOf("failed"), "not written twice: history after the trigger");
+		check(messages.get(3).equals("failed"), "not written twice: triggering message should be last");
+		System.out.println("PASS not written twice");
+	}
+
+	/**
+	 * Many threads record at once, and the history is dumped while they do, then again afterward.
+	 * Each message is written at most once, each dump is in sequence order, and the second dump is a full history.
+	 */
+	private static void testConcurrentRecording() throws Exception
+	{
+		final int threads = 8;
+		final int perThread = 50000;
+		final int capacity = 1000;
+		Collector target = new Collector();
+		LoggingFactory factory = new LoggingFactory(LogLevel.ERROR, new Collector());
+		FlightRecorder recorder = new FlightRecorder(capacity, LogLevel.ERROR, target);
+		factory.setFlightRecorder(recorder);
+		final Logger logger = factory.getLogger("test");
+		final CountDownLatch halfway = new CountDownLatch(threads);
+
+		Thread[] producers = new Thread[threads];
+		for (int t = 0; t < threads; t++)
+		{
+			final int id = t;
+			producers[t] = new Thread("FlightRecorderTest-" + t)
+			{
+				@Override
+				public void run()
+				{
+					for (int i = 0; i < perThread; i++)
+					{
+						if (i == perThread / 2)
+							halfway.countDown();
+						logger.debug("t" + id + "-" + i);
+					}
+				}
+			};
+		}
+		for (Thread t : producers)
+			t.start();
+		halfway.await();
+		recorder.dump();
+		for (Thread t : producers)
+			t.join();
+		check(recorder.size() == capacity, "concurrent: expected a full history, got " + recorder.size());
+		int firstDump = target.awaitQuiet(1).size();
+		recorder.dump();
+
+		List<String> messages = target.awaitQuiet(firstDump + capacity);
+		check(messages.size() == firstDump + capacity, "concurrent: expected " + (firstDump + capacity) + " messages, got " + messages.size());
+		check(new HashSet<String>(messages).size() == messages.size(), "concurrent: a message was written twice");
+		check(target.descents() <= 1, "concurrent: sequence numbers out of order within a dump");
+		System.out.println("PASS concurrent recording");
+	}
+
+	/**
+	 * Collects the messages and sequence numbers that it is sent.
+	 */
+	private static class Collector implements LoggingDriver
+	{
+		private List<String> messages = new ArrayList<String>();
+		private List<Long> sequences = new ArrayList<Long>();
+
+		@Override
+		public void log(Date time, LogLevel level, String source, String message, Throwable throwable)
+		{
+			log(time.getTime() * 1000000L, -1L, level, source, message, LogFields.EMPTY, LogContext.EMPTY, null, throwable);
+		}
+
+		@Override
+		public synchronized void log(long time, long sequence, LogLevel level, String source, String message, LogFields fields, LogContext context, LogOrigin origin, Throwable throwable)
+		{
+			messages.add(message);
+			sequences.add(sequence);
+		}
+
+		private synchronized List<String> messages()
+		{
+			return new ArrayList<String>(messages);
+		}
+
+		/**
+		 * @return the amount of times a sequence number was not greater than the one before it.
+		 */
+		private synchronized int descents()
+		{
+			int out = 0;
+			for (int i = 1; i < sequences.size(); i++)
+				if (sequences.get(i) <= sequences.get(i - 1))
+					out++;
+			return out;
+		}
+
+		private List<String> await(int amount) throws InterruptedException
+		{
+			long deadline = System.currentTimeMillis() + TIMEOUT;
+			List<String> out;
+			while ((out = messages()).size() < amount)
+			{
+				check(System.currentTimeMillis() < deadline, "expected " + amount + " messages, got " + out.size());
+				Thread.sleep(10L);
+			}
+			return out;
+		}
+
+		/**
+		 * Waits for at least an amount of messages, and then for nothing more to arrive for a short while.
+		 */
+		private List<String> awaitQuiet(int amount) throws InterruptedException
+		{
+			List<String> out = await(amount);
+			List<String> next;
+			while (true)
+			{
+				Thread.sleep(100L);
+				if ((next = messages()).size() == out.size())
+					return out;
+				out = next;
+			}
+		}
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+}
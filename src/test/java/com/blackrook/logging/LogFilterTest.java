@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import com.blackrook.logging.LoggingFactory.LogLevel;
+
+/**
+ * Tests {@link LogFilter} and source routes on a factory, with drivers that collect what they are sent.
+ * Run as a program: any failed check ends it with an exception.
+ * @author Matthew Tropiano
+ */
+public final class LogFilterTest
+{
+	/** Maximum time to wait for expected messages, in milliseconds. */
+	private static final int TIMEOUT = 5000;
+	/** Time to wait for messages that should not arrive, in milliseconds. */
+	private static final int QUIET_TIME = 100;
+
+	public static void main(String[] args) throws Exception
+	{
+		testSourcePrefixes();
+		testSourcePhaseSkipsFormatting();
+		testMessagePhase();
+		testStructuredBuilder();
+		testRoutes();
+		System.out.println("All LogFilter tests passed.");
+	}
+
+	/**
+	 * Source prefixes match whole dotted name parts.
+	 */
+	private static void testSourcePrefixes() throws Exception
+	{
+		check(LogFilter.matches("com.example", "com.example"), "prefixes: exact name not matched");
+		check(LogFilter.matches("com.example.Thing", "com.example"), "prefixes: child name not matched");
+		check(!LogFilter.matches("com.examples", "com.example"), "prefixes: partial name part matched");
+		check(!LogFilter.matches(null, "com.example"), "prefixes: null source matched");
+
+		Collector out = new Collector();
+		LoggingFactory factory = new LoggingFactory(LogLevel.DEBUG, out);
+		factory.addFilter(LogFilter.excludeSources("com.example.noisy"), LogFilter.level("com.example.db", LogLevel.WARNING));
+		factory.getLogger("com.example.noisy.Thing").info("noisy");
+		factory.getLogger("com.example.db").info("db-info");
+		factory.getLogger("com.example.db").warn("db-warn");
+		factory.getLogger("com.example.web").debug("web-debug");
+
+		List<String> messages = out.awaitQuiet(2);
+		check(messages.size() == 2 && messages.contains("db-warn") && messages.contains("web-debug"), "prefixes: unexpected messages " + messages);
+		System.out.println("PASS source prefixes");
+	}
+
+	/**
+	 * A message rejected in the source phase is never formatted, queued, or seen by the message phase.
+	 */
+	private static void testSourcePhaseSkipsFormatting() throws Exception
+	{
+		final AtomicInteger formatted = new AtomicInteger(0);
+		Object argument = new Object()
+		{
+			@Override
+			public String toString()
+			{
+				formatted.incrementAndGet();
+				return "argument";
+			}
+		};
+
+		Collector out = new Collector();
+		LoggingFactory factory = new LoggingFactory(LogLevel.DEBUG, out);
+		LogFilter sources = LogFilter.includeSources("kept");
+		LogFilter messages = LogFilter.excludeMessages(Pattern.compile("never"));
+		factory.addFilter(sources, messages);
+
+		factory.getLogger("dropped").infof("value %s", argument);
+		factory.getLogger("kept").infof("value %s", argument);
+		out.awaitQuiet(1);
+		check(formatted.get() == 1, "source phase: rejected message was formatted");
+		check(sources.getEvaluatedCount() == 2L && sources.getRejectedCount() == 1L, "source phase: unexpected counts");
+		check(messages.getEvaluatedCount() == 1L, "source phase: rejected message reached the message phase");
+		System.out.println("PASS source phase skips formatting");
+	}
+
+	/**
+	 * Message-phase filters see the formatted message and the fields.
+	 */
+	private static void testMessagePhase() throws Exception
+	{
+		Collector out = new Collector();
+		LoggingFactory factory = new LoggingFactory(LogLevel.DEBUG, out);
+		LogFilter pattern = LogFilter.excludeMessages(Pattern.compile("^heartbeat"));
+		factory.addFilter(pattern, LogFilter.excludeValues("marker", Pattern.compile("^audit$")));
+
+		Logger logger = factory.getLogger("test");
+		logger.info("heartbeat 1");
+		logger.atInfo().with("marker", "audit").log("audited");
+		logger.atInfo().with("marker", "other").log("marked");
+		logger.infof("%s %d", "count", 2);
+
+		List<String> messages = out.awaitQuiet(2);
+		check(messages.size() == 2 && messages.get(0).equals("marked") && messages.get(1).equals("count 2"), "message phase: unexpected messages " + messages);
+		check(pattern.getRejectedCount() == 1L, "message phase: expected 1 rejection, got " + pattern.getRejectedCount());
+		pattern.resetCounts();
+		check(pattern.getEvaluatedCount() == 0L && pattern.getRejectedCount() == 0L, "message phase: counts not reset");
+		System.out.println("PASS message phase");
+	}
+
+	/**
+	 * A structured call that the source phase rejects gets a disabled builder, and is counted once.
+	 */
+	private static void testStructuredBuilder() throws Exception
+	{
+		Collector out = new Collector();
+		LoggingFactory factory = new LoggingFactory(LogLevel.DEBUG, out);
+		LogFilter sources = LogFilter.excludeSources("dropped");
+		factory.addFilter(sources);
+
+		LogBuilder builder = factory.getLogger("dropped").atInfo();
+		check(!builder.isEnabled(), "structured: rejected source got an enabled builder");
+		builder.with("key", "value").log("dropped");
+		builder = factory.getLogger("kept").atInfo();
+		check(builder.isEnabled(), "structured: accepted source got a disabled builder");
+		builder.with("key", "value").log("kept");
+
+		List<String> messages = out.awaitQuiet(1);
+		check(messages.size() == 1 && messages.get(0).equals("kept"), "structured: unexpected messages " + messages);
+		check(sources.getEvaluatedCount() == 2L, "structured: expected 2 evaluations, got " + sources.getEvaluatedCount());
+		System.out.println("PASS structured builder");
+	}
+
+	/**
+	 * Routed sources go to their own drivers instead of the factory's, with the longest matching prefix winning.
+	 */
+	private static void testRoutes() throws Exception
+	{
+		Collector main = new Collector();
+		Collector db = new Collector();
+		Collector slow = new Collector();
+		LoggingFactory factory = new LoggingFactory(LogLevel.DEBUG, main);
+		factory.setRoute("com.example.db", db);
+		factory.setRoute("com.example.db.slow", slow);
+		factory.setRoute("com.example.quiet");
+
+		factory.getLogger("com.example.web").info("web");
+		factory.getLogger("com.example.db.Pool").info("pool");
+		factory.getLogger("com.example.db.slow.Query").info("query");
+		factory.getLogger("com.example.quiet").info("quiet");
+
+		main.awaitQuiet(1);
+		db.awaitQuiet(1);
+		slow.awaitQuiet(1);
+		check(main.messages().size() == 1 && main.messages().get(0).equals("web"), "routes: unexpected factory messages " + main.messages());
+		check(db.messages().size() == 1 && db.messages().get(0).equals("pool"), "routes: unexpected db messages " + db.messages());
+		check(slow.messages().size() == 1 && slow.messages().get(0).equals("query"), "routes: unexpected slow messages " + slow.messages());
+
+		factory.setRoute("com.example.db", (LoggingDriver[])null);
+		check(factory.getRoute("com.example.db") == null, "routes: route not removed");
+		factory.getLogger("com.example.db.Pool").info("pool-2");
+		check(main.awaitQuiet(2).get(1).equals("pool-2"), "routes: removed route still used");
+		System.out.println("PASS routes");
+	}
+
+	/**
+	 * Collects the messages that it is sent.
+	 */
+	private static class Collector implements LoggingDriver
+	{
+		private List<String> messages = new ArrayList<String>();
+
+		@Override
+		public synchronized void log(Date time, LogLevel level, String source, String message, Throwable throwable)
+		{
+			messages.add(message);
+		}
+
+		@Override
+		public synchronized void log(long time, long sequence, LogLevel level, String source, String message, LogFields fields, LogContext context, LogOrigin origin, Throwable throwable)
+		{
+			messages.add(message);
+		}
+
+		private synchronized List<String> messages()
+		{
+			return new ArrayList<String>(messages);
+		}
+
+		/**
+		 * Waits for at least an amount of messages, and then for nothing more to arrive for a short while.
+		 */
+		private List<String> awaitQuiet(int amount) throws InterruptedException
+		{
+			long deadline = System.currentTimeMillis() + TIMEOUT;
+			List<String> out;
+			while ((out = messages()).size() < amount)
+			{
+				check(System.currentTimeMillis() < deadline, "expected " + amount + " messages, got " + out);
+				Thread.sleep(10L);
+			}
+			List<String> next;
+			while (true)
+			{
+				Thread.sleep(QUIET_TIME);
+				if ((next = messages()).size() == out.size())
+					return out;
+				out = next;
+			}
+		}
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+}
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Tests {@link LoggingConfig} and {@link LoggingConfigWatcher} with file drivers in a temporary directory.
+ * Run as a program: any failed check ends it with an exception.
+ * @author Matthew Tropiano
+ */
+public final class LoggingConfigTest
+{
+	/** Maximum time to wait for reloads and output, in milliseconds. */
+	private static final int TIMEOUT = 5000;
+	/** Name of the logging thread, to check thread output. */
+	private static final String THREAD_NAME = "LoggingConfigTest-Producer";
+
+	public static void main(String[] args) throws Exception
+	{
+		testReloadWhileLogging();
+		testAppendOption();
+		System.out.println("All LoggingConfig tests passed.");
+	}
+
+	/**
+	 * The configuration file is rewritten while a thread logs into a file next to it:
+	 * switching files, switching back, and changing the layout. Every message arrives exactly once,
+	 * the first file keeps what was written before switching away, and layout changes apply to later messages.
+	 * Since the log file changes constantly, this also checks that changes to other files don't hold off reloads.
+	 */
+	private static void testReloadWhileLogging() throws Exception
+	{
+		File dir = Files.createTempDirectory("logging-config-test").toFile();
+		File configFile = new File(dir, "logging.properties");
+		File fileA = new File(dir, "a.log");
+		File fileB = new File(dir, "b.log");
+
+		writeConfig(configFile, fileA, false);
+		LoggingFactory factory = new LoggingFactory();
+		LoggingConfigWatcher watcher = new LoggingConfigWatcher(factory, configFile);
+		Producer producer = new Producer(factory.getLogger("test"));
+		try {
+			producer.start();
+			waitForMessages(fileA, 20);
+
+			reload(watcher, configFile, fileB, false);
+			waitForMessages(fileB, 20);
+			reload(watcher, configFile, fileA, false);
+			reload(watcher, configFile, fileA, true);
+			waitForMessages(fileA, readLines(fileA).size() + 20);
+		} finally {
+			producer.finish();
+			watcher.close();
+		}
+
+		// The last messages may still be on their way.
+		int total = producer.count();
+		boolean[] seen = new boolean[total];
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (true)
+		{
+			Arrays.fill(seen, false);
+			int found = collect(fileA, seen) + collect(fileB, seen);
+			if (found == total)
+				break;
+			check(System.currentTimeMillis() < deadline, "reload while logging: " + found + " of " + total + " messages written");
+			sleep(50L);
+		}
+
+		List<String> linesA = readLines(fileA);
+		check(messageIndex(linesA.get(0)) == 0, "reload while logging: switching back replaced the first file");
+		check(!linesA.get(0).contains("[" + THREAD_NAME + "]"), "reload while logging: thread shown before the layout change");
+		check(linesA.get(linesA.size() - 1).contains("[" + THREAD_NAME + "]"), "reload while logging: layout change not applied");
+
+		LoggingConfig config = watcher.getConfig();
+		for (LoggingDriver driver : config.getDrivers())
+			if (driver instanceof AutoCloseable)
+				((AutoCloseable)driver).close();
+		delete(dir);
+		System.out.println("PASS reload while logging");
+	}
+
+	/**
+	 * Recreated file drivers append by default, and replace the file when append is false.
+	 */
+	private static void testAppendOption() throws Exception
+	{
+		File dir = Files.createTempDirectory("logging-config-test").toFile();
+		File file = new File(dir, "out.log");
+		Files.write(file.toPath(), "earlier\n".getBytes(StandardCharsets.UTF_8));
+
+		Properties properties = new Properties();
+		properties.setProperty("drivers", "out");
+		properties.setProperty("driver.out.type", "file");
+		properties.setProperty("driver.out.path", file.getPath());
+		AutoCloseable driver = (AutoCloseable)LoggingConfig.parse(properties, null).getDriver("out");
+		driver.close();
+		check(readLines(file).contains("earlier"), "append option: default did not append");
+
+		properties.setProperty("driver.out.append", "false");
+		driver = (AutoCloseable)LoggingConfig.parse(properties, null).getDriver("out");
+		driver.close();
+		check(readLines(file).isEmpty(), "append option: false did not replace the file");
+
+		properties.setProperty("driver.out.append", "maybe");
+		try {
+			LoggingConfig.parse(properties, null);
+			check(false, "append option: bad value accepted");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		delete(dir);
+		System.out.println("PASS append option");
+	}
+
+	/**
+	 * Logs numbered messages until told to stop.
+	 */
+	private static class Producer extends Thread
+	{
+		private Logger logger;
+		private volatile boolean running;
+		private volatile int count;
+
+		private Producer(Logger logger)
+		{
+			setName(THREAD_NAME);
+			this.logger = logger;
+			this.running = true;
+			this.count = 0;
+		}
+
+		private int count()
+		{
+			return count;
+		}
+
+		private void finish() throws InterruptedException
+		{
+			running = false;
+			join();
+		}
+
+		@Override
+		public void run()
+		{
+			while (running)
+			{
+				logger.info("msg-" + count);
+				count++;
+				LoggingConfigTest.sleep(1L);
+			}
+		}
+	}
+
+	private static void writeConfig(File configFile, File logFile, boolean showThread) throws IOException
+	{
+		String content = "level=INFO\n"
+			+ "drivers=out\n"
+			+ "driver.out.type=file\n"
+			+ "driver.out.path=" + logFile.getPath().replace("\\", "\\\\") + "\n"
+			+ "driver.out.showThread=" + showThread + "\n";
+		// Written next to it and moved over it, so the watcher never reads a partial file.
+		File temp = new File(configFile.getPath() + ".tmp");
+		Files.write(temp.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		Files.move(temp.toPath(), configFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void reload(LoggingConfigWatcher watcher, File configFile, File logFile, boolean showThread) throws Exception
+	{
+		LoggingConfig previous = watcher.getConfig();
+		writeConfig(configFile, logFile, showThread);
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (watcher.getConfig() == previous)
+		{
+			check(System.currentTimeMillis() < deadline, "configuration was not reloaded");
+			sleep(10L);
+		}
+	}
+
+	private static void waitForMessages(File file, int amount) throws IOException
+	{
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (!file.exists() || readLines(file).size() < amount)
+		{
+			check(System.currentTimeMillis() < deadline, "messages did not arrive in " + file.getName());
+			sleep(10L);
+		}
+	}
+
+	private static int collect(File file, boolean[] seen) throws IOException
+	{
+		int out = 0;
+		for (String line : readLines(file))
+		{
+			int index = messageIndex(line);
+			check(index >= 0 && index < seen.length, "unexpected line " + line);
+			check(!seen[index], "message " + index + " written twice");
+			seen[index] = true;
+			out++;
+		}
+		return out;
+	}
+
+	private static int messageIndex(String line)
+	{
+		int start = line.lastIndexOf("msg-");
+		return start < 0 ? -1 : Integer.parseInt(line.substring(start + 4).trim());
+	}
+
+	private static List<String> readLines(File file) throws IOException
+	{
+		return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+	}
+
+	private static void delete(File dir)
+	{
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files)
+				f.delete();
+		dir.delete();
+	}
+
+	private static void sleep(long millis)
+	{
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			// Ignore.
+		}
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+}
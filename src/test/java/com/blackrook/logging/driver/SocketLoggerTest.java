@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.logging.driver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import com.blackrook.logging.LogContext;
+import com.blackrook.logging.LogFields;
+import com.blackrook.logging.LoggingFactory.LogLevel;
+import com.blackrook.logging.driver.SocketLogger.Framing;
+import com.blackrook.logging.driver.SocketLogger.OverflowPolicy;
+import com.blackrook.logging.driver.SocketLogger.Protocol;
+
+/**
+ * Tests {@link SocketLogger} against servers on the loopback interface.
+ * Run as a program: any failed check ends it with an exception.
+ * @author Matthew Tropiano
+ */
+public final class SocketLoggerTest
+{
+	/** Maximum time to wait for expected records, in milliseconds. */
+	private static final int TIMEOUT = 5000;
+	/** Source name for test records. */
+	private static final String SOURCE = "test";
+	/** Fixed timestamp, so that every record is the same length. */
+	private static final long TIME = 1500000000000000000L;
+
+	public static void main(String[] args) throws Exception
+	{
+		testLateServer();
+		testDroppedConnection();
+		testUDP();
+		testOverflow(OverflowPolicy.DROP_NEWEST);
+		testOverflow(OverflowPolicy.DROP_OLDEST);
+		testCloseWhileBlocked();
+		System.out.println("All SocketLogger tests passed.");
+	}
+
+	/**
+	 * Records logged before the server starts are buffered, and sent once a reconnect attempt succeeds.
+	 */
+	private static void testLateServer() throws Exception
+	{
+		int port = freePort();
+		SocketLogger logger = newTCPLogger(port, SocketLogger.DEFAULT_BUFFER_SIZE, OverflowPolicy.DROP_OLDEST);
+		try {
+			for (int i = 0; i < 10; i++)
+				log(logger, "late-" + i);
+			// Let a few connection attempts fail and back off.
+			Thread.sleep(300L);
+
+			try (ServerSocket server = listen(port); Socket socket = accept(server))
+			{
+				BufferedReader reader = reader(socket);
+				for (int i = 0; i < 10; i++)
+					check(readMessage(reader).equals("late-" + i), "late server: record " + i + " missing or out of order");
+			}
+			check(logger.getDroppedCount() == 0L, "late server: records were dropped");
+		} finally {
+			logger.close();
+		}
+		System.out.println("PASS late-starting TCP server");
+	}
+
+	/**
+	 * Records logged while a dropped connection is re-established are sent on the new connection, in order.
+	 * A record written just before the failure was noticed can be lost in the peer's closed socket,
+	 * but nothing is duplicated or reordered, and everything after the reconnect arrives.
+	 */
+	private static void testDroppedConnection() throws Exception
+	{
+		int port = freePort();
+		SocketLogger logger = newTCPLogger(port, SocketLogger.DEFAULT_BUFFER_SIZE, OverflowPolicy.DROP_OLDEST);
+		try (ServerSocket server = listen(port))
+		{
+			int next = 0;
+			for (; next < 5; next++)
+				log(logger, "rec-" + next);
+			try (Socket socket = accept(server))
+			{
+				BufferedReader reader = reader(socket);
+				for (int i = 0; i < 5; i++)
+					check(readMessage(reader).equals("rec-" + i), "dropped connection: record " + i + " missing before the drop");
+			}
+
+			// The connection is gone - keep logging while the logger notices and reconnects.
+			int firstAfterDrop = next;
+			for (; next < firstAfterDrop + 20; next++)
+			{
+				log(logger, "rec-" + next);
+				Thread.sleep(20L);
+			}
+			int last = next + 10;
+			try (Socket socket = accept(server))
+			{
+				for (; next < last; next++)
+					log(logger, "rec-" + next);
+
+				BufferedReader reader = reader(socket);
+				int previous = -1;
+				int received = 0;
+				while (previous < last - 1)
+				{
+					String message = readMessage(reader);
+					int index = Integer.parseInt(message.substring("rec-".length()));
+					check(index >= firstAfterDrop, "dropped connection: record " + index + " sent twice");
+					check(previous < 0 || index == previous + 1, "dropped connection: record " + index + " out of order after " + previous);
+					previous = index;
+					received++;
+				}
+				check(received >= last - firstAfterDrop - 5, "dropped connection: only " + received + " of " + (last - firstAfterDrop) + " records arrived");
+			}
+		} finally {
+			logger.close();
+		}
+		System.out.println("PASS dropped TCP connection");
+	}
+
+	/**
+	 * Each record is sent as its own datagram.
+	 */
+	private static void testUDP() throws Exception
+	{
+		try (DatagramSocket server = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)))
+		{
+			server.setSoTimeout(TIMEOUT);
+			SocketLogger logger = new SocketLogger(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()),
+				Protocol.UDP, Framing.NEWLINE, SocketLogger.DEFAULT_BUFFER_SIZE, OverflowPolicy.DROP_OLDEST
+			);
+			try {
+				for (int i = 0; i < 5; i++)
+					log(logger, "udp-" + i);
+				byte[] buffer = new byte[65536];
+				for (int i = 0; i < 5; i++)
+				{
+					DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+					server.receive(packet);
+					String record = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+					check(record.equals(format("udp-" + i) + "\n"), "UDP: unexpected datagram " + record);
+				}
+			} finally {
+				logger.close();
+			}
+		}
+		System.out.println("PASS UDP");
+	}
+
+	/**
+	 * With no server, records stay buffered, and the overflow policy decides which ones are kept.
+	 */
+	private static void testOverflow(OverflowPolicy policy) throws Exception
+	{
+		int recordLength = format("over-0").getBytes(StandardCharsets.UTF_8).length + 1;
+		int port = freePort();
+		SocketLogger logger = newTCPLogger(port, recordLength * 3, policy);
+		try {
+			for (int i = 0; i < 10; i++)
+				log(logger, "over-" + i);
+			check(logger.getDroppedCount() == 7L, policy + ": expected 7 dropped records, got " + logger.getDroppedCount());
+
+			try (ServerSocket server = listen(port); Socket socket = accept(server))
+			{
+				BufferedReader reader = reader(socket);
+				int first = policy == OverflowPolicy.DROP_NEWEST ? 0 : 7;
+				for (int i = first; i < first + 3; i++)
+					check(readMessage(reader).equals("over-" + i), policy + ": expected record " + i);
+			}
+		} finally {
+			logger.close();
+		}
+		System.out.println("PASS overflow " + policy);
+	}
+
+	/**
+	 * Closing while the peer has stopped reading gives up after the close timeout, instead of waiting forever.
+	 */
+	private static void testCloseWhileBlocked() throws Exception
+	{
+		int port = freePort();
+		SocketLogger logger = newTCPLogger(port, 64 * 1024 * 1024, OverflowPolicy.DROP_OLDEST);
+		try (ServerSocket server = listen(port))
+		{
+			// A record bigger than a batch is sent on its own, so the sender is stuck inside it.
+			StringBuilder sb = new StringBuilder();
+			while (sb.length() < 32 * 1024 * 1024)
+				sb.append("blocked-");
+			log(logger, sb.toString());
+			// Accepted, but never read from.
+			try (Socket socket = accept(server))
+			{
+				Thread.sleep(500L);
+				long start = System.currentTimeMillis();
+				logger.close();
+				check(System.currentTimeMillis() - start < 10000L, "close while blocked: close took too long");
+				check(!senderRunning(port), "close while blocked: sender thread still running");
+			}
+		} finally {
+			logger.close();
+		}
+		System.out.println("PASS close while blocked");
+	}
+
+	private static boolean senderRunning(int port)
+	{
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+			if (thread.getName().startsWith("SocketLogger-") && thread.getName().endsWith(":" + port))
+				return true;
+		return false;
+	}
+
+	private static SocketLogger newTCPLogger(int port, int bufferSize, OverflowPolicy policy)
+	{
+		SocketLogger logger = new SocketLogger(
+			new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+			Protocol.TCP, Framing.NEWLINE, bufferSize, policy
+		);
+		logger.setReconnectDelay(20L, 100L);
+		return logger;
+	}
+
+	private static void log(SocketLogger logger, String message)
+	{
+		logger.log(TIME, -1L, LogLevel.INFO, SOURCE, message, LogFields.EMPTY, LogContext.EMPTY, null, null);
+	}
+
+	private static String format(String message)
+	{
+		return new LogLayout().format(new StringBuilder(), TIME, -1L, LogLevel.INFO, SOURCE, message, LogFields.EMPTY, LogContext.EMPTY, null).toString();
+	}
+
+	private static String readMessage(BufferedReader reader) throws IOException
+	{
+		String line = reader.readLine();
+		check(line != null, "connection ended early");
+		String prefix = format("");
+		check(line.startsWith(prefix), "unexpected record " + line);
+		return line.substring(prefix.length());
+	}
+
+	private static int freePort() throws IOException
+	{
+		try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+		{
+			return socket.getLocalPort();
+		}
+	}
+
+	private static ServerSocket listen(int port) throws IOException
+	{
+		ServerSocket server = new ServerSocket();
+		server.setReuseAddress(true);
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		server.setSoTimeout(TIMEOUT);
+		return server;
+	}
+
+	private static Socket accept(ServerSocket server) throws IOException
+	{
+		Socket socket = server.accept();
+		socket.setSoTimeout(TIMEOUT);
+		return socket;
+	}
+
+	private static BufferedReader reader(Socket socket) throws IOException
+	{
+		return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+}